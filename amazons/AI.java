@@ -1,7 +1,7 @@
 package amazons;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Random;
 
 import static java.lang.Math.*;
 
@@ -13,10 +13,38 @@ import static amazons.Piece.*;
 class AI extends Player {
 
     /** A position magnitude indicating a win (for white if positive, black
-     *  if negative). */
-    private static final int WINNING_VALUE = 30;
+     *  if negative).  Larger than any static estimate. */
+    static final int WINNING_VALUE = 10000;
     /** A magnitude greater than a normal value. */
     private static final int INFTY = Integer.MAX_VALUE;
+    /** Default number of transposition table entries (16 MB). */
+    private static final int DEFAULT_HASH_ENTRIES = 1 << 20;
+    /** Default time limit per move, in milliseconds. */
+    private static final long DEFAULT_MOVE_MILLIS = 3000;
+    /** The deepest search we ever attempt. */
+    private static final int MAX_DEPTH = 100;
+    /** Number of nodes searched between checks of the clock. */
+    private static final int CLOCK_INTERVAL = 1024;
+    /** The most search threads we use. */
+    private static final int MAX_THREADS = 256;
+    /** The number of squares on the board. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+    /** The number of moves at each node that are picked one at a time in
+     *  order before the rest are sorted. */
+    private static final int SELECTED_MOVES = 4;
+    /** History scores are scaled down once one exceeds this. */
+    private static final int MAX_HISTORY = 1 << 24;
+    /** Node limits for the endgame solver when choosing a move, and when
+     *  evaluating a position at the end of a search. */
+    private static final int ROOT_ENDGAME_NODES = 200_000,
+        LEAF_ENDGAME_NODES = 200;
+    /** The proof solver is tried once at most this many squares are
+     *  empty, with this node limit and this many table entries. */
+    private static final int PROOF_EMPTIES = 20, PROOF_NODES = 20_000,
+        PROOF_ENTRIES = 1 << 18;
+    /** The position base is consulted only this many levels below the
+     *  root, where nodes are few enough that its cost does not matter. */
+    private static final int BASE_PLIES = 4;
 
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
@@ -27,173 +55,880 @@ class AI extends Player {
     /** A new AI playing PIECE under control of CONTROLLER. */
     AI(Piece piece, Controller controller) {
         super(piece, controller);
+        _hashEntries = DEFAULT_HASH_ENTRIES;
+        _moveMillis = DEFAULT_MOVE_MILLIS;
+        _depthLimit = MAX_DEPTH;
+        _threads = 1;
+        _ordering = true;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        AI result = new AI(piece, controller);
+        result._hashEntries = _hashEntries;
+        result._moveMillis = _moveMillis;
+        result._gameMillis = _gameMillis;
+        result._depthLimit = _depthLimit;
+        result._threads = _threads;
+        result._deterministic = _deterministic;
+        result._ordering = _ordering;
+        result._ponder = _ponder;
+        result._base = _base;
+        result._book = _book;
+        return result;
+    }
+
+    /** Limit the AIs created from me to MOVEMILLIS milliseconds per move
+     *  and GAMEMILLIS milliseconds per game.  A limit that is not
+     *  positive means no limit.  Returns this AI. */
+    AI setTimeControl(long moveMillis, long gameMillis) {
+        _moveMillis = moveMillis;
+        _gameMillis = gameMillis;
+        return this;
+    }
+
+    /** Limit the AIs created from me to searches of DEPTH levels, and do
+     *  not limit their time unless setTimeControl is also called.
+     *  Returns this AI. */
+    AI setDepth(int depth) {
+        _depthLimit = Math.min(depth, MAX_DEPTH);
+        _moveMillis = _gameMillis = 0;
+        return this;
+    }
+
+    /** Have the AIs created from me search with THREADS threads (at least
+     *  one).  Returns this AI. */
+    AI setThreads(int threads) {
+        _threads = Math.max(1, Math.min(threads, MAX_THREADS));
+        return this;
+    }
+
+    /** Have the AIs created from me choose their moves deterministically
+     *  iff DETERMINISTIC: the same position and game history then give
+     *  the same move, however many threads search it and however they
+     *  are scheduled.  Only fixed-depth searches (see setDepth) can be
+     *  deterministic; with a time control, this has no effect.  Returns
+     *  this AI. */
+    AI setDeterministic(boolean deterministic) {
+        _deterministic = deterministic;
+        return this;
+    }
+
+    /** Have the AIs created from me order the moves they search by hash
+     *  move, killer moves, and history iff ORDERING (as they do by
+     *  default); otherwise, they search moves in the order generated.
+     *  Ordering changes only the speed of a search, not its result.
+     *  Returns this AI. */
+    AI setOrdering(boolean ordering) {
+        _ordering = ordering;
+        return this;
+    }
+
+    /** Have the AIs created from me think on their opponents' time iff
+     *  PONDER.  After each of its moves, such an AI guesses the reply
+     *  and searches the position after it in the background.  If the
+     *  guess is right, it continues that search (under its usual time
+     *  limit) rather than starting again; otherwise, it abandons it.
+     *  Deterministic searches do not ponder.  Returns this AI. */
+    AI setPonder(boolean ponder) {
+        _ponder = ponder;
+        return this;
+    }
+
+    /** Have the AIs created from me consult BASE (if not null) near the
+     *  root of their searches, taking its analyses as they would results
+     *  in their transposition tables.  Returns this AI. */
+    AI setPositionBase(PositionBase base) {
+        _base = base;
+        return this;
+    }
+
+    /** Have the AIs created from me play moves from BOOK (if not null)
+     *  without searching while it has any, choosing among them at random
+     *  by weight, or if deterministic, taking the heaviest.  Returns this
+     *  AI. */
+    AI setOpeningBook(OpeningBook book) {
+        _book = book;
+        return this;
+    }
+
+    /** Use a transposition table of MEGABYTES megabytes (at least one
+     *  entry) in the AIs created from me.  Returns this AI. */
+    AI setHashSize(int megabytes) {
+        _hashEntries = (int) Math.min(Integer.MAX_VALUE / 2,
+                                      ((long) megabytes << 20) / 16);
+        return this;
     }
 
     @Override
     String myMove() {
-        Move move = findMove();
+        if (_random == null) {
+            _random = new Random(_controller.randInt(Integer.MAX_VALUE));
+        }
+        Move move = findMove(board());
+        long[] nodes = new long[_threads];
+        for (int k = 0; k < _threads; k += 1) {
+            nodes[k] = _searchers[k]._nodes;
+        }
+        _controller.reportSearch(_myPiece, _reached, _millis, nodes);
         _controller.reportMove(move);
         return move.toString();
     }
 
-    /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
-        Board b = new Board(board());
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
+    @Override
+    void moveMade(Move move) {
+        Board b = board();
+        if (!_ponder || _deterministic || _table == null
+            || b.turn() == _myPiece || b.winner() != null) {
+            return;
+        }
+        int reply = TranspositionTable.move(_table.probe(b.key()));
+        if (reply == 0 || !b.isLegal(Move.mv(reply))) {
+            return;
+        }
+        Board expected = new Board(b);
+        expected.makeMove(reply);
+        if (expected.winner() != null) {
+            return;
+        }
+        prepare(expected);
+        _ponderKey = expected.key();
+        _pondering = true;
+        _stop = false;
+        _ponderer = new Thread(() -> _ponderMove = sharedSearch());
+        _ponderer.setDaemon(true);
+        _ponderer.start();
+    }
+
+    @Override
+    void dispose() {
+        stopPondering();
+    }
+
+    /** Return a move for me from position B, which must be my move and
+     *  have one.  Does not need a controller.  Searches one
+     *  level deeper at a time until my time runs out, and returns the
+     *  best move of the last completed search.  If I have been pondering
+     *  this position, continues that search.  If my opening book has a
+     *  move, or a solver can find one (see solvedMove), no search is
+     *  needed. */
+    @Override
+    Move findMove(Board b) {
+        Move move;
+        if (_ponderer != null && _ponderKey == b.key()) {
+            _timer.start(b);
+            _pondering = false;
+            join(new Thread[] { _ponderer });
+            _ponderer = null;
+            move = _ponderMove;
         } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
-        }
-
-        if (sense == 1) {
-            int bestValue = -INFTY;
-            Iterator<Move> legalMoves = board.legalMoves(WHITE);
-            while (legalMoves.hasNext()) {
-                Move x = legalMoves.next();
-                board.makeMove(x);
-                int before = bestValue;
-                int value = findMove(board, depth - 1, false, -1, alpha, beta);
-                bestValue = max(bestValue, value);
-                if (saveMove) {
-                    if (bestValue != before) {
-                        _lastFoundMove = x;
-                    }
+            stopPondering();
+            prepare(b);
+            _timer.start(b);
+            _stop = false;
+            int booked = bookMove(b);
+            int solved = booked != 0 ? 0 : solvedMove(b);
+            if (booked != 0) {
+                move = Move.mv(booked);
+                _reached = 0;
+                _value = 0;
+            } else if (solved != 0) {
+                move = Move.mv(solved);
+                _reached = 0;
+                _value = _solvedWinner == WHITE
+                    ? WINNING_VALUE : -WINNING_VALUE;
+            } else if (_deterministic && _moveMillis <= 0
+                       && _gameMillis <= 0) {
+                move = splitRoot();
+            } else {
+                move = sharedSearch();
+            }
+        }
+        _millis = _timer.stop();
+        return move;
+    }
+
+    /** Return the value (positive favoring white) of the position given
+     *  to the last call of findMove, as found by that call. */
+    int value() {
+        return _value;
+    }
+
+    /** Return the depth of the last search completed by findMove, or 0 if
+     *  it needed no search. */
+    int depthReached() {
+        return _reached;
+    }
+
+    /** Remove all entries from my transposition table, if I have one, so
+     *  that my next search starts afresh.  Not safe to call during a
+     *  search. */
+    void clearTable() {
+        if (_table != null) {
+            _table.clear();
+        }
+    }
+
+    /** Sort the first N of MOVES, the moves from BOARD, into the order in
+     *  which I would search them at the root of a search from BOARD
+     *  whose hash move is HASHMOVE, after cutoffs there by each of
+     *  CUTOFFS in turn.  For tests: the cutoffs are recorded in a
+     *  Searcher of their own, so my searches are unaffected. */
+    void order(Board board, int[] moves, int n, int hashMove,
+               int... cutoffs) {
+        Searcher searcher = new Searcher();
+        searcher.reset(board);
+        for (int move : cutoffs) {
+            searcher.recordCutoff(move, 0, 1);
+        }
+        searcher.order(moves, n, hashMove, 0, 1);
+    }
+
+    /** Return the thread searching on my opponent's time, or null if I
+     *  am not pondering. */
+    Thread ponderer() {
+        return _ponderer;
+    }
+
+    /** Return the key of the position I am pondering, if ponderer() is
+     *  not null. */
+    long ponderKey() {
+        return _ponderKey;
+    }
+
+    /** Return a move for me from BOARD from my opening book, or 0 if it
+     *  has none. */
+    private int bookMove(Board board) {
+        if (_book == null) {
+            return 0;
+        }
+        if (_random == null) {
+            _random = new Random();
+        }
+        int move = _book.move(board, _deterministic ? null : _random);
+        return move != 0 && board.isLegal(Move.mv(move)) ? move : 0;
+    }
+
+    /** Return a move for me from BOARD found by a solver rather than a
+     *  search, or 0 if none can find one within its node limit.  Once the
+     *  queens are walled off from each other, the endgame solver finds
+     *  the best move if it can count the moves exactly.  Before then, once
+     *  few squares are empty, the proof solver may find a winning move. */
+    private int solvedMove(Board board) {
+        if (_endgame.solve(board, ROOT_ENDGAME_NODES)) {
+            _solvedWinner = _endgame.winner(board.turn());
+            return _endgame.exact() ? _endgame.bestMove() : 0;
+        }
+        int occupied = 0;
+        for (Piece p : new Piece[] { WHITE, BLACK, SPEAR }) {
+            occupied += Long.bitCount(board.mask(p, 0))
+                + Long.bitCount(board.mask(p, 1));
+        }
+        if (SQUARES - occupied > PROOF_EMPTIES) {
+            return 0;
+        }
+        if (_prover == null) {
+            _prover = new ProofSolver(PROOF_ENTRIES);
+        }
+        if (_prover.solve(board, PROOF_NODES) == _myPiece) {
+            _solvedWinner = _myPiece;
+            return _prover.winningMove();
+        }
+        return 0;
+    }
+
+    /** Allocate whatever my searches need that I do not yet have, and
+     *  prepare each of my searchers to search from BOARD. */
+    private void prepare(Board board) {
+        if (_table == null) {
+            _table = new TranspositionTable(_hashEntries);
+        }
+        if (_timer == null) {
+            _timer = new TimeManager(_moveMillis, _gameMillis);
+        }
+        if (_searchers == null) {
+            _searchers = new Searcher[_threads];
+            for (int k = 0; k < _threads; k += 1) {
+                _searchers[k] = new Searcher();
+            }
+        }
+        for (Searcher searcher : _searchers) {
+            searcher.reset(board);
+        }
+    }
+
+    /** Abandon any search I am doing in the background, and wait for it
+     *  to finish. */
+    private void stopPondering() {
+        if (_ponderer != null) {
+            _stop = true;
+            join(new Thread[] { _ponderer });
+            _ponderer = null;
+            _pondering = false;
+        }
+    }
+
+    /** Return true iff the current search should stop: because it has
+     *  been told to, or because its time has run out.  Searches on my
+     *  opponent's time have no time limit. */
+    private boolean outOfTime() {
+        return _stop || !_pondering && _timer.expired();
+    }
+
+    /** Search with all my threads at once, sharing _table (Lazy SMP).
+     *  The first thread deepens until time runs out, as for a single
+     *  thread, and its result is the one used.  The others search the
+     *  same position, starting at staggered depths, only to fill _table
+     *  with results that the first thread then finds.  Return the move
+     *  found. */
+    private Move sharedSearch() {
+        Thread[] helpers = new Thread[_threads - 1];
+        for (int k = 1; k < _threads; k += 1) {
+            Searcher helper = _searchers[k];
+            int first = 1 + k % 2;
+            helpers[k - 1] = new Thread(() -> helper.deepen(first, false));
+            helpers[k - 1].setDaemon(true);
+            helpers[k - 1].start();
+        }
+        Searcher main = _searchers[0];
+        main.deepen(1, true);
+        _stop = true;
+        join(helpers);
+        _reached = main._reached;
+        _value = main._value;
+        return Move.mv(main._bestMove);
+    }
+
+    /** Search deterministically with all my threads, dividing the moves
+     *  from the current position among them.  Each thread searches its
+     *  moves by alpha-beta with its own private table, so the best value
+     *  it finds, and the first of its moves with that value, do not depend
+     *  on scheduling.  The best of these wins, ties going to the move
+     *  searched first at the root: the best move of the previous
+     *  iteration, then the others in the order generated.  Return the move
+     *  found. */
+    private Move splitRoot() {
+        if (_privateTables == null) {
+            _privateTables = new TranspositionTable[_threads];
+            int entries = Math.max(1, _hashEntries / _threads);
+            for (int k = 0; k < _threads; k += 1) {
+                _privateTables[k] = new TranspositionTable(entries);
+            }
+        }
+        int sense = _myPiece == WHITE ? 1 : -1;
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = _searchers[0]._board.legalMoves(_myPiece, moves);
+        int[] bests = new int[_threads];
+        for (int depth = 1; depth <= _depthLimit; depth += 1) {
+            int d = depth;
+            Thread[] helpers = new Thread[_threads - 1];
+            for (int k = 1; k < _threads; k += 1) {
+                Searcher helper = _searchers[k];
+                int first = k;
+                helper._table = _privateTables[k];
+                helpers[k - 1] = new Thread(() ->
+                    bests[first] = helper.searchRootMoves(moves, n, first,
+                                                          _threads, d));
+                helpers[k - 1].setDaemon(true);
+                helpers[k - 1].start();
+            }
+            _searchers[0]._table = _privateTables[0];
+            bests[0] = _searchers[0].searchRootMoves(moves, n, 0, _threads,
+                                                     d);
+            join(helpers);
+            int best = -1;
+            for (int k = 0; k < _threads; k += 1) {
+                if (bests[k] < 0) {
+                    continue;
                 }
-                alpha = max(alpha, bestValue);
-                board.undo();
-                if (beta <= alpha) {
+                int value = _searchers[k]._value;
+                if (best < 0 || sense * value > sense * _value
+                    || value == _value && bests[k] < best) {
+                    best = bests[k];
+                    _value = value;
+                }
+            }
+            toFront(moves, n, moves[best]);
+            _reached = depth;
+            if (abs(_value) >= WINNING_VALUE) {
+                break;
+            }
+        }
+        return Move.mv(moves[0]);
+    }
+
+    /** Wait for all THREADS to finish. */
+    private static void join(Thread[] threads) {
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
                     break;
+                } catch (InterruptedException excp) {
+                    continue;
                 }
             }
-            return bestValue;
+        }
+    }
 
+    /** Thrown to abandon a search whose time has run out. */
+    private static class SearchAborted extends RuntimeException {
+        /** The (only) SearchAborted. */
+        SearchAborted() {
+            super(null, null, false, false);
+        }
+    }
 
-        } else {
-            int bestValue = INFTY;
-            Iterator<Move> legalMoves = board.legalMoves(BLACK);
-            while (legalMoves.hasNext()) {
-                Move x = legalMoves.next();
-                int before = bestValue;
-                board.makeMove(x);
-                int value = findMove(board, depth - 1, false, 1, alpha, beta);
-                bestValue = min(bestValue, value);
-                if (saveMove) {
-                    if (bestValue != before) {
-                        _lastFoundMove = x;
+    /** The exception thrown to abandon a search. */
+    private static final SearchAborted ABORTED = new SearchAborted();
+
+    /** The state of one thread's search: its own copy of the board, its
+     *  move buffers, and its statistics.  Only the transposition table is
+     *  shared with other Searchers. */
+    private class Searcher {
+
+        /** Prepare to search from a copy of BOARD. */
+        void reset(Board board) {
+            if (_board == null) {
+                _board = new Board();
+            }
+            _board.copyPosition(board);
+            _table = AI.this._table;
+            _bestMove = 0;
+            _reached = 0;
+            _value = 0;
+            _nodes = 0;
+            _abortable = false;
+            _rootPly = board.numMoves();
+            Arrays.fill(_killers, null);
+            ageHistory();
+        }
+
+        /** Search my board to depths FIRST, FIRST + 1, ..., recording the
+         *  best move and depth of each completed search in _bestMove and
+         *  _reached.  If MAIN, stop when time runs out, when it is not
+         *  worth starting another iteration, or when a win or loss is
+         *  certain (but while pondering, ignore time); otherwise stop
+         *  when _stop is set. */
+        void deepen(int first, boolean main) {
+            int sense = _myPiece == WHITE ? 1 : -1;
+            _abortable = !main;
+            for (int depth = first; depth <= _depthLimit; depth += 1) {
+                int value;
+                try {
+                    value = findMove(_board, depth, true, sense,
+                                     -INFTY, INFTY);
+                } catch (SearchAborted excp) {
+                    break;
+                }
+                _reached = depth;
+                _value = value;
+                _abortable = true;
+                if (main && (abs(value) >= WINNING_VALUE
+                             || !_pondering
+                                && !_timer.canStartIteration())) {
+                    break;
+                }
+            }
+        }
+
+        /** Search the moves MOVES[FIRST], MOVES[FIRST + STEP], ...,
+         *  MOVES[N - 1] from my board to DEPTH levels by alpha-beta,
+         *  storing the best value found in _value and returning the index
+         *  of the first move with that value, or -1 if there are no such
+         *  moves.  Only moves whose values improve on those before them
+         *  get values inside the window, so both results are exact. */
+        int searchRootMoves(int[] moves, int n, int first, int step,
+                            int depth) {
+            int sense = _myPiece == WHITE ? 1 : -1;
+            int alpha = -INFTY, beta = INFTY;
+            int best = -1;
+            for (int i = first; i < n; i += step) {
+                _board.makeMove(moves[i]);
+                int value = findMove(_board, depth - 1, false, -sense,
+                                     alpha, beta);
+                _board.undo();
+                if (best < 0 || sense * value > sense * _value) {
+                    best = i;
+                    _value = value;
+                    if (sense == 1) {
+                        alpha = value;
+                    } else {
+                        beta = value;
                     }
                 }
-                beta = min(beta, bestValue);
+            }
+            return best;
+        }
+
+        /** Find a move from position BOARD and return its value,
+         *  recording the move found in _bestMove iff SAVEMOVE. The move
+         *  should have maximal value or have value > BETA if SENSE==1,
+         *  and minimal value or value < ALPHA if SENSE==-1. Searches up
+         *  to DEPTH levels.  Searching at level 0 simply returns a static
+         *  estimate of the board value and does not set _bestMove.
+         *  Results are recorded in and reused from _table. */
+        private int findMove(Board board, int depth, boolean saveMove,
+                             int sense, int alpha, int beta) {
+            _nodes += 1;
+            if (_abortable && _nodes % CLOCK_INTERVAL == 0
+                && outOfTime()) {
+                throw ABORTED;
+            }
+            if (depth == 0 || board.winner() != null) {
+                return staticScore(board);
+            }
+
+            long key = board.key();
+            long entry = _table.probe(key);
+            int ply = board.numMoves() - _rootPly;
+            if (_base != null && ply <= BASE_PLIES
+                && TranspositionTable.depth(entry) < depth) {
+                long stored = _base.probe(key);
+                if (TranspositionTable.depth(stored)
+                    > TranspositionTable.depth(entry)) {
+                    entry = stored;
+                }
+            }
+            int hashMove = TranspositionTable.move(entry);
+            if (saveMove && _bestMove != 0) {
+                hashMove = _bestMove;
+            }
+            if (entry != 0 && !saveMove
+                && TranspositionTable.depth(entry) >= depth) {
+                int score = TranspositionTable.score(entry);
+                switch (TranspositionTable.bound(entry)) {
+                case TranspositionTable.EXACT:
+                    return score;
+                case TranspositionTable.LOWER:
+                    alpha = max(alpha, score);
+                    break;
+                default:
+                    beta = min(beta, score);
+                    break;
+                }
+                if (beta <= alpha) {
+                    return score;
+                }
+            }
+
+            int alpha0 = alpha, beta0 = beta;
+            int[] moves = moveBuffer(depth);
+            int n = board.legalMoves(sense == 1 ? WHITE : BLACK, moves);
+            order(moves, n, hashMove, ply, depth);
+            int bestValue = sense == 1 ? -INFTY : INFTY;
+            int bestMove = 0;
+            for (int i = 0; i < n; i += 1) {
+                board.makeMove(moves[i]);
+                int value = findMove(board, depth - 1, false, -sense,
+                                     alpha, beta);
                 board.undo();
+                if (sense == 1 ? value > bestValue : value < bestValue) {
+                    bestValue = value;
+                    bestMove = moves[i];
+                }
+                if (sense == 1) {
+                    alpha = max(alpha, bestValue);
+                } else {
+                    beta = min(beta, bestValue);
+                }
                 if (beta <= alpha) {
+                    recordCutoff(moves[i], ply, depth);
                     break;
                 }
             }
+
+            int bound;
+            if (bestValue <= alpha0) {
+                bound = TranspositionTable.UPPER;
+            } else if (bestValue >= beta0) {
+                bound = TranspositionTable.LOWER;
+            } else {
+                bound = TranspositionTable.EXACT;
+            }
+            _table.store(key, depth, bound, bestValue, bestMove);
+            if (saveMove) {
+                _bestMove = bestMove;
+            }
             return bestValue;
         }
-    }
 
-
-
-    /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
-    private int maxDepth(Board board) {
-        int N = board.numMoves();
-        int i;
-        int period = 15 + 3;
-        if (N < period) {
-            i = 1;
-            return i;
-        } else if (N < 2 * period) {
-            i = 2;
-            return i;
-        } else if (N < 3 * period) {
-            i = 3;
-            return i;
-        } else if (N < 4 * period) {
-            i = 4;
-            return i;
-        } else {
-            i = 5;
-            return i;
+        /** Sort the first N entries of MOVES, generated at PLY levels
+         *  below the root with DEPTH levels left to search, into the order
+         *  in which they should be searched: HASHMOVE (if present), then
+         *  the killer moves for PLY, then the rest by decreasing history
+         *  score.  Only the first few moves are usually needed, so we
+         *  select those first and sort the rest only if we get to them.
+         *  Leaves MOVES alone unless I order moves (see setOrdering). */
+        private void order(int[] moves, int n, int hashMove, int ply,
+                           int depth) {
+            if (!_ordering) {
+                return;
+            }
+            long[] keys = keyBuffer(depth);
+            int[] killers = killers(ply);
+            for (int i = 0; i < n; i += 1) {
+                int move = moves[i];
+                int score;
+                if (move == hashMove) {
+                    score = Integer.MAX_VALUE;
+                } else if (move == killers[0]) {
+                    score = Integer.MAX_VALUE - 1;
+                } else if (move == killers[1]) {
+                    score = Integer.MAX_VALUE - 2;
+                } else {
+                    score = _queenHistory[queenMove(move)]
+                        + _spearHistory[spearThrow(move)];
+                }
+                keys[i] = ((long) score << 32) | move;
+            }
+            int selected = Math.min(n, SELECTED_MOVES);
+            for (int i = 0; i < selected; i += 1) {
+                int best = i;
+                for (int j = i + 1; j < n; j += 1) {
+                    if (keys[j] > keys[best]) {
+                        best = j;
+                    }
+                }
+                long key = keys[best];
+                keys[best] = keys[i];
+                keys[i] = key;
+                moves[i] = (int) key;
+            }
+            if (selected < n) {
+                Arrays.sort(keys, selected, n);
+                for (int i = selected; i < n; i += 1) {
+                    moves[i] = (int) keys[n - 1 - i + selected];
+                }
+            }
         }
-    }
 
+        /** Record that MOVE, made PLY levels below the root with DEPTH
+         *  levels left to search, caused a cutoff. */
+        private void recordCutoff(int move, int ply, int depth) {
+            int[] killers = killers(ply);
+            if (killers[0] != move) {
+                killers[1] = killers[0];
+                killers[0] = move;
+            }
+            int bonus = depth * depth;
+            _queenHistory[queenMove(move)] += bonus;
+            _spearHistory[spearThrow(move)] += bonus;
+            if (_queenHistory[queenMove(move)] > MAX_HISTORY
+                || _spearHistory[spearThrow(move)] > MAX_HISTORY) {
+                ageHistory();
+            }
+        }
 
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
-        Piece winner = board.winner();
-        if (winner == BLACK) {
-            return -WINNING_VALUE;
-        } else if (winner == WHITE) {
-            return WINNING_VALUE;
-        } else {
+        /** Reduce the weight of all history scores, so that recent
+         *  cutoffs count for more than old ones. */
+        private void ageHistory() {
+            for (int i = 0; i < _queenHistory.length; i += 1) {
+                _queenHistory[i] >>= 1;
+                _spearHistory[i] >>= 1;
+            }
+        }
 
-            Iterator<Square> iter = Square.iterator();
-            int i = 1;
-            ArrayList<Square> queenLocations = new ArrayList<>();
-            while (iter.hasNext() && i < 5) {
-                Square x = iter.next();
-                if (board.get(x) == WHITE) {
-                    queenLocations.add(x);
-                    i++;
-                }
+        /** Return the killer moves for PLY levels below the root. */
+        private int[] killers(int ply) {
+            if (ply >= _killers.length) {
+                _killers = Arrays.copyOf(_killers, ply + 1);
+            }
+            if (_killers[ply] == null) {
+                _killers[ply] = new int[2];
             }
+            return _killers[ply];
+        }
 
-            ArrayList<Square> blackLocations = new ArrayList<>();
-            int j = 1;
-            while (iter.hasNext() && j < 5) {
-                Square x = iter.next();
-                if (board.get(x) == BLACK) {
-                    blackLocations.add(x);
-                    j++;
-                }
+        /** Return the sort-key buffer for searches with DEPTH levels
+         *  remaining. */
+        private long[] keyBuffer(int depth) {
+            if (depth >= _keyBuffers.length) {
+                _keyBuffers = Arrays.copyOf(_keyBuffers, depth + 1);
+            }
+            if (_keyBuffers[depth] == null) {
+                _keyBuffers[depth] = new long[Board.MAX_MOVES];
             }
+            return _keyBuffers[depth];
+        }
 
-            int score = 0;
-            for (Square x: queenLocations) {
-                Iterator<Square> moves = board.reachableFrom(x, null);
-                while (moves.hasNext()) {
-                    score++;
-                    moves.next();
-                }
+        /** Return a heuristic value for BOARD.  If its queens are walled
+         *  off from each other and the endgame solver can find the winner
+         *  quickly, that is the value (except in deterministic searches,
+         *  where the solver's memo would make the value depend on the
+         *  positions searched before). */
+        private int staticScore(Board board) {
+            Piece winner = board.winner();
+            if (winner == null && !_deterministic
+                && _endgame.solve(board, LEAF_ENDGAME_NODES)) {
+                winner = _endgame.winner(board.turn());
+            }
+            if (winner == BLACK) {
+                return -WINNING_VALUE;
+            } else if (winner == WHITE) {
+                return WINNING_VALUE;
+            } else {
+                return _territory.evaluate(board);
             }
+        }
 
-            int score2 = 0;
-            for (Square x: blackLocations) {
-                Iterator<Square> moves = board.reachableFrom(x, null);
-                while (moves.hasNext()) {
-                    score2++;
-                    moves.next();
-                }
+        /** Return the move buffer for searches with DEPTH levels
+         *  remaining.  Each ply of a search has its own buffer, so buffers
+         *  are reused from one node to the next rather than allocated. */
+        private int[] moveBuffer(int depth) {
+            if (depth >= _moveBuffers.length) {
+                _moveBuffers = Arrays.copyOf(_moveBuffers, depth + 1);
+            }
+            if (_moveBuffers[depth] == null) {
+                _moveBuffers[depth] = new int[Board.MAX_MOVES];
             }
-            return score - score2;
+            return _moveBuffers[depth];
         }
 
+        /** The board I search. */
+        private Board _board;
+        /** The table in which I record results. */
+        private TranspositionTable _table;
+        /** The best move (a packed code) found by my last completed
+         *  search, or 0 if none. */
+        private int _bestMove;
+        /** The depth of my last completed search. */
+        private int _reached;
+        /** The value found by my last completed search. */
+        private int _value;
+        /** Number of nodes visited in the current search. */
+        private long _nodes;
+        /** True iff the current search may be abandoned when time runs
+         *  out or _stop is set, which is once it has found some move. */
+        private boolean _abortable;
+        /** Move buffers, indexed by remaining search depth. */
+        private int[][] _moveBuffers = new int[0][];
+        /** My static evaluator. */
+        private final Territory _territory = new Territory();
+        /** My solver for separated positions. */
+        private final Endgame _endgame = new Endgame();
+        /** Buffers of sort keys for ordering moves, indexed by remaining
+         *  search depth. */
+        private long[][] _keyBuffers = new long[0][];
+        /** The number of moves made on _board before the current search.
+         *  The ply of a position is its numMoves() less this. */
+        private int _rootPly;
+        /** The two most recent moves (packed codes) that caused cutoffs at
+         *  each ply, most recent first. */
+        private int[][] _killers = new int[0][];
+        /** History scores of the queen moves FROM-TO, indexed by
+         *  queenMove(move).  Higher scores have caused more cutoffs. */
+        private int[] _queenHistory = new int[SQUARES * SQUARES];
+        /** History scores of the spear throws TO(SPEAR), indexed by
+         *  spearThrow(move). */
+        private int[] _spearHistory = new int[SQUARES * SQUARES];
+    }
+
+    /** Return the index of the queen move part of MOVE, a packed code,
+     *  in the queen-move history tables. */
+    private static int queenMove(int move) {
+        return Move.from(move) * SQUARES + Move.to(move);
+    }
+
+    /** Return the index of the spear throw part of MOVE, a packed code,
+     *  in the spear-throw history tables. */
+    private static int spearThrow(int move) {
+        return Move.to(move) * SQUARES + Move.spear(move);
+    }
+
+    /** Move MOVE, if it is among the first N entries of MOVES, to the
+     *  front of MOVES, keeping the order of the others. */
+    private static void toFront(int[] moves, int n, int move) {
+        for (int i = 0; i < n; i += 1) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
     }
 
+    /** Number of entries in _table. */
+    private int _hashEntries;
+
+    /** Time limits per move and per game, in milliseconds (not positive
+     *  for none). */
+    private long _moveMillis, _gameMillis;
+
+    /** The deepest search I attempt. */
+    private int _depthLimit;
+
+    /** Number of threads I search with. */
+    private int _threads;
+
+    /** True iff my searches must be deterministic. */
+    private boolean _deterministic;
+
+    /** True iff I order moves (see setOrdering). */
+    private boolean _ordering;
+
+    /** True iff I ponder (see setPonder). */
+    private boolean _ponder;
+
+    /** Allots my time during a game.  Allocated on first use. */
+    private TimeManager _timer;
+
+    /** Results of earlier searches, shared by all my searches and
+     *  threads.  Allocated on first use, so templates do not carry a
+     *  table. */
+    private TranspositionTable _table;
+
+    /** One table per thread for deterministic searches, or null if not
+     *  yet needed. */
+    private TranspositionTable[] _privateTables;
+
+    /** The state of each of my search threads, or null if I have not yet
+     *  searched. */
+    private Searcher[] _searchers;
+
+    /** Set to stop all threads of the current search. */
+    private volatile boolean _stop;
+
+    /** The depth of the last completed search. */
+    private int _reached;
+
+    /** The value found by the last call of findMove. */
+    private int _value;
+
+    /** The winner found by the solver that found the last move returned
+     *  by solvedMove. */
+    private Piece _solvedWinner;
+
+    /** Analyses to consult in searches, or null. */
+    private PositionBase _base;
+
+    /** Moves to play without searching, or null. */
+    private OpeningBook _book;
+
+    /** Source of random choices among book moves.  Allocated on first
+     *  use. */
+    private Random _random;
+
+    /** The time taken by the last call of findMove, in milliseconds. */
+    private long _millis;
+
+    /** The solver used for separated positions before searching. */
+    private final Endgame _endgame = new Endgame();
+
+    /** The solver used for positions with few empty squares before
+     *  searching.  Allocated on first use. */
+    private ProofSolver _prover;
+
+    /** The thread searching on my opponent's time, or null if none. */
+    private Thread _ponderer;
+
+    /** True while my background search is not yet a search for a move I
+     *  have been asked for, and so has no time limit. */
+    private volatile boolean _pondering;
+
+    /** The key of the position my background search is searching. */
+    private long _ponderKey;
 
+    /** The move found by my background search, once it is finished. */
+    private Move _ponderMove;
 }
@@ -0,0 +1,433 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+
+import ucb.util.CommandArgs;
+
+/** A batch analyser of game logs (as written by Controller to the file
+ *  named by Main's --log option).  The logs are read one game at a time,
+ *  and each position of each game is searched by an AI on a pool of
+ *  worker threads.  The results are written, a game at a time and in
+ *  the order the games were read, as lines of text giving each move's
+ *  value, the engine's best move and its value, and whether the move
+ *  was a blunder.  Only the games being analysed are held in memory.
+ *
+ *  Progress is recorded from time to time in a checkpoint file: the
+ *  number of games whose analysis has been written and the length of
+ *  the output at that point.  A run given the same logs and the same
+ *  checkpoint resumes after the last game recorded there, discarding
+ *  any output written after it.
+ *  @author Ani Gottiparthy
+ */
+final class Analyzer {
+
+    /** An analyser that searches each position with an AI created from
+     *  ENGINE, using THREADS worker threads, and flags a move as a
+     *  blunder if its value is at least BLUNDER less than that of the best
+     *  move. */
+    Analyzer(AI engine, int threads, int blunder) {
+        _engine = engine;
+        _threads = Math.max(1, threads);
+        _blunder = blunder;
+        _workers = ThreadLocal.withInitial(() -> {
+            AI[] result = {
+                (AI) _engine.create(WHITE, null),
+                (AI) _engine.create(BLACK, null)
+            };
+            synchronized (_analysts) {
+                _analysts.add(result[0]);
+                _analysts.add(result[1]);
+            }
+            return result;
+        });
+    }
+
+    /** Analyse the games in the logs named NAMES, in order, writing the
+     *  results to the file named OUTPUT and recording progress in the file
+     *  named CHECKPOINT.  If CHECKPOINT exists, resumes from it (see
+     *  above); otherwise, starts OUTPUT afresh.  Return the number of games
+     *  analysed by this call. */
+    int run(List<String> names, String output, String checkpoint)
+        throws IOException {
+        _checkpoint = Paths.get(checkpoint);
+        long skip = 0;
+        _offset = 0;
+        if (Files.exists(_checkpoint)) {
+            String[] fields =
+                Files.readString(_checkpoint).trim().split("\\s+");
+            if (fields.length != 2) {
+                throw error("%s is not a checkpoint", checkpoint);
+            }
+            skip = Long.parseLong(fields[0]);
+            _offset = Long.parseLong(fields[1]);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+            if (file.length() < _offset) {
+                throw error("%s is shorter than %s records", output,
+                            checkpoint);
+            }
+            file.setLength(_offset);
+        }
+        _next = _saved = skip;
+        _finished.clear();
+        _failure = null;
+        _window = new Semaphore(WINDOW_GAMES * _threads);
+        _out = new FileOutputStream(output, true);
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        long number = 0;
+        try {
+            Board board = new Board();
+            int[] moves = new int[GameRecord.MAX_MOVES];
+            for (String name : names) {
+                try (BufferedReader in =
+                     new BufferedReader(new FileReader(name))) {
+                    int n;
+                    while (_failure == null
+                           && (n = readGame(in, board, moves)) >= 0) {
+                        if (n == 0) {
+                            continue;
+                        }
+                        if (number >= skip) {
+                            _window.acquireUninterruptibly();
+                            submit(pool, new Game(number, name, moves, n,
+                                                  board.winner()));
+                        }
+                        number += 1;
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+            while (true) {
+                try {
+                    if (pool.awaitTermination(1, TimeUnit.DAYS)) {
+                        break;
+                    }
+                } catch (InterruptedException excp) {
+                    continue;
+                }
+            }
+            synchronized (this) {
+                if (_failure == null) {
+                    saveCheckpoint();
+                }
+                _out.close();
+            }
+            for (AI analyst : _analysts) {
+                analyst.dispose();
+            }
+            _analysts.clear();
+        }
+        if (_failure != null) {
+            throw _failure;
+        }
+        return (int) Math.max(0, number - skip);
+    }
+
+    /** Read the next game from IN, replaying it on BOARD and storing its
+     *  legal moves (as packed codes; see Move.code) in MOVES, which must
+     *  have room for GameRecord.MAX_MOVES.  Return their number, or -1 if
+     *  IN is at its end.  A game ends with a "new" or "quit" command, or
+     *  at the end of IN.  Lines other than moves and those commands are
+     *  ignored, as are illegal moves, which Controller also ignores. */
+    static int readGame(BufferedReader in, Board board, int[] moves)
+        throws IOException {
+        board.init();
+        int n = 0;
+        String line = in.readLine();
+        if (line == null) {
+            return -1;
+        }
+        for (; line != null; line = in.readLine()) {
+            int end = line.indexOf('#');
+            if (end < 0) {
+                end = line.length();
+            }
+            int start = Move.skipWhitespace(line, 0, end);
+            while (end > start
+                   && Character.isWhitespace(line.charAt(end - 1))) {
+                end -= 1;
+            }
+            int move = Move.parse(line, start, end);
+            if (move >= 0) {
+                if (board.isLegal(Move.mv(move))) {
+                    board.makeMove(move);
+                    moves[n] = move;
+                    n += 1;
+                }
+            } else if (isCommand(line, start, end, "new")
+                       || isCommand(line, start, end, "quit")) {
+                break;
+            }
+        }
+        return n;
+    }
+
+    /** Return true iff the characters START to END-1 of LINE are the
+     *  command NAME, ignoring case. */
+    private static boolean isCommand(String line, int start, int end,
+                                     String name) {
+        return end - start == name.length()
+            && line.regionMatches(true, start, name, 0, end - start);
+    }
+
+    /** Queue the searches of each position of GAME on POOL. */
+    private void submit(ExecutorService pool, Game game) {
+        for (int p = 0; p <= game._numMoves; p += 1) {
+            int position = p;
+            pool.execute(() -> analyse(game, position));
+        }
+    }
+
+    /** Search position number POSITION (from 0, the start) of GAME, and
+     *  if that completes GAME, pass it to finished.  Once there is a
+     *  failure, the remaining positions are not searched. */
+    private void analyse(Game game, int position) {
+        try {
+            if (_failure == null) {
+                Board board = new Board();
+                for (int i = 0; i < position; i += 1) {
+                    board.makeMove(game._moves[i]);
+                }
+                Piece winner = board.winner();
+                if (winner != null) {
+                    game._values[position] =
+                        winner == WHITE ? AI.WINNING_VALUE : -AI.WINNING_VALUE;
+                } else {
+                    AI analyst =
+                        _workers.get()[board.turn() == WHITE ? 0 : 1];
+                    game._best[position] = analyst.findMove(board).code();
+                    game._values[position] = analyst.value();
+                }
+            }
+        } catch (RuntimeException excp) {
+            fail(new IOException("analysis failed: " + excp, excp));
+        }
+        if (game._remaining.decrementAndGet() == 0) {
+            finished(game);
+        }
+    }
+
+    /** Record that GAME has been analysed, and write it and any games
+     *  after it that are also finished, in order, allowing another game
+     *  to be read for each.  After a failure, nothing more is written,
+     *  and games are let through so that reading can stop. */
+    private synchronized void finished(Game game) {
+        _finished.put(game._number, game);
+        if (_failure != null) {
+            _finished.clear();
+            _window.release(WINDOW_GAMES * _threads);
+            return;
+        }
+        for (Game next = _finished.remove(_next); next != null;
+             next = _finished.remove(_next)) {
+            try {
+                byte[] text = report(next).getBytes(StandardCharsets.UTF_8);
+                _out.write(text);
+                _offset += text.length;
+                _next += 1;
+                if (_next - _saved >= CHECKPOINT_GAMES) {
+                    saveCheckpoint();
+                }
+            } catch (IOException excp) {
+                fail(excp);
+            }
+            _window.release();
+        }
+    }
+
+    /** Return the analysis of GAME, as text.  The first line gives the
+     *  game's number, log, length, and result.  Each move then has a
+     *  line giving, separated by tabs: the game's number; the move's
+     *  number (from 1); the side making it; the move and its value; the
+     *  best move and its value; the difference between the values; and
+     *  "??" if the move is a blunder.  Values are from the point of view
+     *  of the side making the move. */
+    private String report(Game game) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("# Game %d (%s): %d moves, %s%n",
+                                  game._number, game._log, game._numMoves,
+                                  game._winner == null ? "unfinished"
+                                  : game._winner.toName() + " wins"));
+        for (int p = 0; p < game._numMoves; p += 1) {
+            Piece side = p % 2 == 0 ? WHITE : BLACK;
+            int sign = side == WHITE ? 1 : -1;
+            int best = sign * game._values[p];
+            int played = game._moves[p] == game._best[p] ? best
+                : sign * game._values[p + 1];
+            int loss = Math.max(0, best - played);
+            text.append(String.format("%d\t%d\t%s\t%s\t%d\t%s\t%d\t%d%s%n",
+                                      game._number, p + 1, side.toName(),
+                                      Move.toString(game._moves[p]),
+                                      played,
+                                      Move.toString(game._best[p]), best,
+                                      loss, loss >= _blunder ? "\t??" : ""));
+        }
+        return text.toString();
+    }
+
+    /** Flush the output and record the games written so far and its
+     *  length in the checkpoint file, replacing it atomically. */
+    private synchronized void saveCheckpoint() throws IOException {
+        _out.flush();
+        Path temp = Paths.get(_checkpoint + ".tmp");
+        Files.writeString(temp, String.format("%d %d%n", _next, _offset));
+        Files.move(temp, _checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        _saved = _next;
+    }
+
+    /** Record FAILURE as the reason to stop, unless there already is
+     *  one. */
+    private synchronized void fail(IOException failure) {
+        if (_failure == null) {
+            _failure = failure;
+        }
+    }
+
+    /** Analyse the logs named in ARGS, as described by the options in
+     *  ARGS: --output=FILE names the file of results; --checkpoint=FILE
+     *  (default, the output's name followed by ".checkpoint") names the
+     *  checkpoint; --engine=SPEC (default "ai,depth=3,threads=1"; see
+     *  Tournament.engine) describes the AI that searches each position;
+     *  --threads=N (default, the number of processors) sets the number
+     *  of positions searched at once; and --blunder=V (default BLUNDER)
+     *  sets the loss in value that makes a move a blunder. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--output= --checkpoint={0,1} --engine={0,1}"
+                            + " --threads={0,1} --blunder={0,1}"
+                            + " --={1,}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.Analyzer --output=FILE"
+                               + " [--checkpoint=FILE] [--engine=SPEC]"
+                               + " [--threads=N] [--blunder=V] LOG...");
+            System.exit(1);
+        }
+        try {
+            Player engine = Tournament.engine(
+                options.contains("--engine")
+                ? options.getFirst("--engine") : ENGINE);
+            if (!(engine instanceof AI)) {
+                throw error("the engine must be an ai");
+            }
+            int threads = options.contains("--threads")
+                ? Integer.parseInt(options.getFirst("--threads"))
+                : Runtime.getRuntime().availableProcessors();
+            int blunder = options.contains("--blunder")
+                ? Integer.parseInt(options.getFirst("--blunder")) : BLUNDER;
+            String output = options.getFirst("--output");
+            String checkpoint = options.contains("--checkpoint")
+                ? options.getFirst("--checkpoint") : output + ".checkpoint";
+            Analyzer analyzer = new Analyzer((AI) engine, threads, blunder);
+            int games = analyzer.run(options.get("--"), output, checkpoint);
+            System.out.printf("Analysed %d games.%n", games);
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A game being analysed. */
+    private static class Game {
+        /** Game number NUMBER, read from the log named LOG, whose first
+         *  NUMMOVES MOVES were made, leaving WINNER (or null) the
+         *  winner. */
+        Game(long number, String log, int[] moves, int numMoves,
+             Piece winner) {
+            _number = number;
+            _log = log;
+            _moves = Arrays.copyOf(moves, numMoves);
+            _numMoves = numMoves;
+            _winner = winner;
+            _best = new int[numMoves + 1];
+            _values = new int[numMoves + 1];
+            _remaining = new AtomicInteger(numMoves + 1);
+        }
+
+        /** My number, from 0, among all the games read. */
+        private final long _number;
+        /** The name of my log. */
+        private final String _log;
+        /** My moves, as packed codes. */
+        private final int[] _moves;
+        /** The number of my moves. */
+        private final int _numMoves;
+        /** My winner, or null if unfinished. */
+        private final Piece _winner;
+        /** The best move found from each of my positions (0 if none). */
+        private final int[] _best;
+        /** The value (positive favoring white) of each of my
+         *  positions. */
+        private final int[] _values;
+        /** The number of my positions yet to be searched. */
+        private final AtomicInteger _remaining;
+    }
+
+    /** Default engine. */
+    private static final String ENGINE = "ai,depth=3,threads=1";
+    /** Default loss in value that makes a blunder: that of about four
+     *  squares of territory.  Forced wins and losses are worth far more,
+     *  so throwing one away is always a blunder. */
+    static final int BLUNDER = 4 * Territory.QUEEN_WEIGHT;
+    /** Number of games per thread that may be analysed at once. */
+    private static final int WINDOW_GAMES = 4;
+    /** Number of games written between checkpoints. */
+    private static final int CHECKPOINT_GAMES = 16;
+
+    /** The template for my analysts. */
+    private final AI _engine;
+    /** The number of worker threads. */
+    private final int _threads;
+    /** The loss in value that makes a blunder. */
+    private final int _blunder;
+    /** All analysts created. */
+    private final List<AI> _analysts = new ArrayList<>();
+    /** Each worker's analysts, for white and for black. */
+    private final ThreadLocal<AI[]> _workers;
+    /** Games analysed but not yet written, by number. */
+    private final Map<Long, Game> _finished = new HashMap<>();
+    /** Limits the number of games being analysed at once. */
+    private Semaphore _window;
+    /** The number of the next game to write. */
+    private long _next;
+    /** The number of games written as of the last checkpoint. */
+    private long _saved;
+    /** The length of the output written so far. */
+    private long _offset;
+    /** The output. */
+    private OutputStream _out;
+    /** The checkpoint file. */
+    private Path _checkpoint;
+    /** The reason to stop, or null if none. */
+    private volatile IOException _failure;
+}
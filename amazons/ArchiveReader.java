@@ -0,0 +1,178 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static amazons.ArchiveWriter.*;
+import static amazons.Piece.*;
+
+/** A reader of the game archives written by ArchiveWriter (which
+ *  describes the format).  The file is memory-mapped, so that reading a
+ *  game, in order or by number, copies no more than that game's bytes,
+ *  and several threads may read at once.  Since a single mapping holds at
+ *  most 2GB, the file is mapped in segments of SEGMENT_SIZE bytes, each
+ *  overlapping the next by MAX_RECORD bytes so that every game (and
+ *  index entry) lies whole within the segment in which it starts.
+ *  @author Ani Gottiparthy
+ */
+final class ArchiveReader implements AutoCloseable {
+
+    /** A reader of the archive in the file named NAME. */
+    ArchiveReader(String name) throws IOException {
+        this(name, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** A reader of the archive in the file named NAME, mapped in segments
+     *  of SEGMENTSIZE bytes (at least MAX_RECORD). */
+    ArchiveReader(String name, int segmentSize) throws IOException {
+        _segmentSize = Math.max(segmentSize, MAX_RECORD);
+        try (FileChannel file =
+             FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+            long size = file.size();
+            int n = (int) ((size + _segmentSize - 1) / _segmentSize);
+            _segments = new MappedByteBuffer[Math.max(n, 1)];
+            for (int i = 0; i < n; i += 1) {
+                long start = (long) i * _segmentSize;
+                long length = Math.min(size - start,
+                                       (long) _segmentSize + MAX_RECORD);
+                _segments[i] =
+                    file.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+            if (size < HEADER_SIZE + TRAILER_SIZE
+                || getInt(0) != MAGIC || getInt(size - 4) != MAGIC) {
+                throw Utils.error("%s is not a complete game archive", name);
+            }
+            if (getInt(4) != VERSION) {
+                throw Utils.error("%s has unknown version %d", name,
+                                  getInt(4));
+            }
+            _indexOffset = getLong(size - TRAILER_SIZE);
+            _numGames = getInt(size - TRAILER_SIZE + 8);
+            if (_indexOffset + 8L * _numGames != size - TRAILER_SIZE) {
+                throw Utils.error("%s has a damaged index", name);
+            }
+        }
+    }
+
+    /** Return the number of games in the archive. */
+    int size() {
+        return _numGames;
+    }
+
+    /** Return game #K (from 0). */
+    GameRecord game(int k) {
+        long offset = offset(k);
+        int numMoves = moves(k, _moves.get());
+        int winner = getByte(offset);
+        long start = getLong(offset + 2);
+        int whiteMillis = getInt(offset + 10),
+            blackMillis = getInt(offset + 14);
+        long p = offset + 18;
+        String whiteName = getName(p);
+        p += 1 + getByte(p);
+        String blackName = getName(p);
+        return new GameRecord(_moves.get(), numMoves,
+                              winner == 0 ? null
+                              : winner == 1 ? WHITE : BLACK,
+                              whiteName, blackName, whiteMillis, blackMillis,
+                              start);
+    }
+
+    /** Store the moves of game #K, packed as by Move.code, in MOVES, and
+     *  return their number.  MOVES must have room for
+     *  GameRecord.MAX_MOVES.  This is the fast path for readers that need
+     *  only the moves, as it creates no objects. */
+    int moves(int k, int[] moves) {
+        long offset = offset(k);
+        int numMoves = getByte(offset + 1);
+        long p = offset + 18;
+        p += 1 + getByte(p);
+        p += 1 + getByte(p);
+        MappedByteBuffer segment = segment(p);
+        int i0 = index(p);
+        for (int i = 0; i < numMoves; i += 1, i0 += 3) {
+            moves[i] = (segment.get(i0) & 0xff) << 16
+                | (segment.get(i0 + 1) & 0xff) << 8
+                | segment.get(i0 + 2) & 0xff;
+        }
+        return numMoves;
+    }
+
+    /** Return the winner of game #K: WHITE, BLACK, or null if it is
+     *  unfinished. */
+    Piece winner(int k) {
+        int winner = getByte(offset(k));
+        return winner == 0 ? null : winner == 1 ? WHITE : BLACK;
+    }
+
+    /** Release the mapping.  (The file is unmapped when this reader is
+     *  garbage-collected.) */
+    @Override
+    public void close() {
+        _segments = null;
+    }
+
+    /** Return the offset of game #K. */
+    private long offset(int k) {
+        if (k < 0 || k >= _numGames) {
+            throw Utils.error("no game #%d in archive", k);
+        }
+        return getLong(_indexOffset + 8L * k);
+    }
+
+    /** Return the segment containing the byte at OFFSET in the file,
+     *  and everything after it in the same record. */
+    private MappedByteBuffer segment(long offset) {
+        return _segments[(int) (offset / _segmentSize)];
+    }
+
+    /** Return the index in segment(OFFSET) of the byte at OFFSET. */
+    private int index(long offset) {
+        return (int) (offset % _segmentSize);
+    }
+
+    /** Return the unsigned byte at OFFSET. */
+    private int getByte(long offset) {
+        return segment(offset).get(index(offset)) & 0xff;
+    }
+
+    /** Return the big-endian int at OFFSET. */
+    private int getInt(long offset) {
+        return segment(offset).getInt(index(offset));
+    }
+
+    /** Return the big-endian long at OFFSET. */
+    private long getLong(long offset) {
+        return segment(offset).getLong(index(offset));
+    }
+
+    /** Return the name stored at OFFSET as a length byte and UTF-8. */
+    private String getName(long offset) {
+        byte[] bytes = new byte[getByte(offset)];
+        MappedByteBuffer segment = segment(offset);
+        int i0 = index(offset) + 1;
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = segment.get(i0 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Default segment size. */
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    /** The mapped segments of the file. */
+    private MappedByteBuffer[] _segments;
+    /** The size of each segment, excluding overlap. */
+    private final int _segmentSize;
+    /** The offset of the index. */
+    private long _indexOffset;
+    /** The number of games. */
+    private int _numGames;
+    /** Per-thread buffers for game's moves. */
+    private final ThreadLocal<int[]> _moves =
+        ThreadLocal.withInitial(() -> new int[GameRecord.MAX_MOVES]);
+}
@@ -0,0 +1,152 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+
+/** A writer of game archives: files of GameRecords, written one after
+ *  another as games finish, and read back by ArchiveReader.
+ *
+ *  An archive is a header, the games, an index, and a trailer.  The
+ *  header is the 4-byte MAGIC number and the 4-byte VERSION.  Each game
+ *  is, in order: its winner (1 byte: 0 for none, 1 for WHITE, 2 for
+ *  BLACK); its number of moves, N (1 byte); its starting time (8 bytes);
+ *  the white and black engines' times (4 bytes each); the white and black
+ *  engines' names (each a 1-byte length followed by that many bytes of
+ *  UTF-8); and its N moves, each a packed move (see Move.code), whose 21
+ *  bits take 3 bytes.  The index holds the 8-byte offset of each game in
+ *  the file.  The trailer is the 8-byte offset of the index, the 4-byte
+ *  number of games, and MAGIC.  All numbers are big-endian.  So a typical
+ *  game takes about 3 bytes a move, and any game can be found by number
+ *  from the index without reading the others.
+ *  @author Ani Gottiparthy
+ */
+final class ArchiveWriter implements AutoCloseable {
+
+    /** A writer of a new archive in the file named NAME. */
+    ArchiveWriter(String name) throws IOException {
+        this(new FileOutputStream(name));
+    }
+
+    /** A writer of a new archive on OUT. */
+    ArchiveWriter(OutputStream out) throws IOException {
+        _out = new BufferedOutputStream(out, BUFFER_SIZE);
+        _offsets = new long[INITIAL_GAMES];
+        write(putInt(putInt(0, MAGIC), VERSION));
+    }
+
+    /** Append GAME to the archive, and return its number (from 0). */
+    synchronized int add(GameRecord game) throws IOException {
+        if (_offsets == null) {
+            throw Utils.error("archive is closed");
+        }
+        if (_numGames == _offsets.length) {
+            _offsets = Arrays.copyOf(_offsets, 2 * _numGames);
+        }
+        _offsets[_numGames] = _position;
+        Piece winner = game.winner();
+        int k = 0;
+        k = putByte(k, winner == null ? 0 : winner == WHITE ? 1 : 2);
+        k = putByte(k, game.numMoves());
+        k = putLong(k, game.start());
+        k = putInt(k, game.millis(WHITE));
+        k = putInt(k, game.millis(BLACK));
+        k = putName(k, game.name(WHITE));
+        k = putName(k, game.name(BLACK));
+        for (int i = 0; i < game.numMoves(); i += 1) {
+            int move = game.move(i);
+            k = putByte(putByte(putByte(k, move >>> 16), move >>> 8), move);
+        }
+        write(k);
+        _numGames += 1;
+        return _numGames - 1;
+    }
+
+    /** Return the number of games written so far. */
+    synchronized int size() {
+        return _numGames;
+    }
+
+    /** Write the index and trailer, and close the file.  The archive
+     *  cannot be read until this is done. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (_offsets == null) {
+            return;
+        }
+        long indexOffset = _position;
+        for (int i = 0; i < _numGames; i += 1) {
+            write(putLong(0, _offsets[i]));
+        }
+        write(putInt(putInt(putLong(0, indexOffset), _numGames), MAGIC));
+        _offsets = null;
+        _out.close();
+    }
+
+    /** Write the first LENGTH bytes of _record. */
+    private void write(int length) throws IOException {
+        _out.write(_record, 0, length);
+        _position += length;
+    }
+
+    /** Store the low byte of VALUE at _record[K], and return the index
+     *  after it. */
+    private int putByte(int k, int value) {
+        _record[k] = (byte) value;
+        return k + 1;
+    }
+
+    /** Store VALUE at _record[K..K+3], and return the index after it. */
+    private int putInt(int k, int value) {
+        return putByte(putByte(putByte(putByte(k, value >>> 24),
+                                       value >>> 16), value >>> 8), value);
+    }
+
+    /** Store VALUE at _record[K..K+7], and return the index after it. */
+    private int putLong(int k, long value) {
+        return putInt(putInt(k, (int) (value >>> 32)), (int) value);
+    }
+
+    /** Store NAME at _record[K...] as a length byte followed by at most
+     *  MAX_NAME bytes of UTF-8, and return the index after it. */
+    private int putName(int k, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_NAME);
+        k = putByte(k, length);
+        System.arraycopy(bytes, 0, _record, k, length);
+        return k + length;
+    }
+
+    /** Identifies a game archive. */
+    static final int MAGIC = 0x414d5a41;
+    /** The version of the format. */
+    static final int VERSION = 1;
+    /** The longest engine name stored, in bytes. */
+    static final int MAX_NAME = 255;
+    /** The largest game record. */
+    static final int MAX_RECORD =
+        18 + 2 * (1 + MAX_NAME) + 3 * GameRecord.MAX_MOVES;
+    /** The size of the header and of the trailer. */
+    static final int HEADER_SIZE = 8, TRAILER_SIZE = 16;
+
+    /** Size of the output buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Initial size of _offsets. */
+    private static final int INITIAL_GAMES = 1024;
+
+    /** The archive file. */
+    private final OutputStream _out;
+    /** The offsets of the games so far, or null once closed. */
+    private long[] _offsets;
+    /** The number of games so far. */
+    private int _numGames;
+    /** The number of bytes written so far. */
+    private long _position;
+    /** The record being written. */
+    private final byte[] _record = new byte[MAX_RECORD];
+}
@@ -1,14 +1,19 @@
 package amazons;
 
 
-import java.util.HashMap;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.Iterator;
 import java.util.Collections;
 import static amazons.Piece.*;
 
 
-/** The state of an Amazons Game.
+/** The state of an Amazons Game.  Each Board owns all of its state, so
+ *  any number of Boards may exist at once.  A Board is not thread-safe:
+ *  it must be confined to one thread at a time, and a thread that wants
+ *  to search or play independently should work on its own copy (see the
+ *  copy constructor), which is cheap.  Boards share only Squares and
+ *  Moves, which are immutable and may be used freely from any thread.
  *  @author Ani Gottiparthy
  */
 class Board {
@@ -16,11 +21,28 @@ class Board {
     /** The number of squares on a side of the board. */
     static final int SIZE = 10;
 
-    /** The pieces on each square. */
-    private static HashMap<Square, Piece> boardMap;
+    /** An upper bound on the number of legal moves in any position: four
+     *  queens, each with at most 35 destinations, each of which has at
+     *  most 35 spear throws. */
+    static final int MAX_MOVES = 4 * 35 * 35;
 
-    /** The stack containing each move. */
-    private static Stack<Move> moveStack;
+    /** The occupancy masks of the board, two longs per kind of piece.
+     *  Square index I is bit I % 64 of word I / 64 in each pair.  Words
+     *  0-1 hold the white queens, 2-3 the black queens, and 4-5 the
+     *  spears.  A square set in none of the masks is EMPTY. */
+    private final long[] _masks = new long[6];
+
+    /** The journal of moves made on the board since its history began,
+     *  as packed codes (see Move.code), oldest first.  Each move fills a
+     *  square, so there can be no more than there are squares. */
+    private final int[] _history = new int[SIZE * SIZE];
+
+    /** The number of moves in _history. */
+    private int _numMoves;
+
+    /** The number of moves made before _history began (see
+     *  copyPosition). */
+    private int _base;
 
     /** Initializes a game board with SIZE squares on a side in the
      *  initial position. */
@@ -28,53 +50,60 @@ class Board {
         init();
     }
 
-    /** Initializes a copy of MODEL. */
+    /** Initializes a copy of MODEL.  The copy shares no mutable state with
+     *  MODEL, so it may be handed to another thread. */
     Board(Board model) {
         copy(model);
     }
 
-    /** Copies MODEL into me. */
+    /** Copies MODEL into me, including its history. */
     void copy(Board model) {
-        HashMap<Square, Piece> toCopy = model.boardmap();
-        this.moveStack = (Stack<Move>) model.moveStack.clone();
-        this._turn = model._turn;
-        this.boardMap = new HashMap<>(100);
-        for (Square x: toCopy.keySet()) {
-            this.boardMap.put(x, toCopy.get(x));
+        if (model == this) {
+            return;
         }
-        this._winner = model._winner;
+        copyPosition(model);
+        System.arraycopy(model._history, 0, _history, 0, model._numMoves);
+        _numMoves = model._numMoves;
+        _base = model._base;
+    }
+
+    /** Copies the position on MODEL into me, without its history: my
+     *  numMoves() is the same as MODEL's, but the moves before it cannot
+     *  be undone.  This is all a search needs, and saves copying the
+     *  game so far. */
+    void copyPosition(Board model) {
+        if (model == this) {
+            return;
+        }
+        _numMoves = 0;
+        _base = model.numMoves();
+        _turn = model._turn;
+        System.arraycopy(model._masks, 0, _masks, 0, _masks.length);
+        _key = model._key;
+        _winner = model._winner;
     }
 
     /** Clears the board to the initial position. */
     void init() {
-        boardMap = new HashMap<>(100);
         _turn = WHITE;
         _winner = EMPTY;
-        moveStack = new Stack<>();
+        _numMoves = _base = 0;
         setboard();
     }
 
-    /** Returns this boards hashMap. */
-    HashMap<Square, Piece> boardmap() {
-        return boardMap;
-    }
-
     /** Creates the initial setting for the board. */
     void setboard() {
-        for (int i = 0; i <= 9; i++) {
-            for (int j = 0; j <= 9; j++) {
-                boardMap.put(Square.sq(i, j), EMPTY);
-            }
-        }
-
-        boardMap.put(Square.sq(3, 0), WHITE);
-        boardMap.put(Square.sq(6, 0), WHITE);
-        boardMap.put(Square.sq(0, 3), WHITE);
-        boardMap.put(Square.sq(9, 3), WHITE);
-        boardMap.put(Square.sq(0, 6), BLACK);
-        boardMap.put(Square.sq(9, 6), BLACK);
-        boardMap.put(Square.sq(3, 9), BLACK);
-        boardMap.put(Square.sq(6, 9), BLACK);
+        Arrays.fill(_masks, 0L);
+        _key = _turn == BLACK ? ZOBRIST_TURN : 0;
+
+        put(WHITE, Square.sq(3, 0));
+        put(WHITE, Square.sq(6, 0));
+        put(WHITE, Square.sq(0, 3));
+        put(WHITE, Square.sq(9, 3));
+        put(BLACK, Square.sq(0, 6));
+        put(BLACK, Square.sq(9, 6));
+        put(BLACK, Square.sq(3, 9));
+        put(BLACK, Square.sq(6, 9));
 
     }
 
@@ -83,31 +112,73 @@ class Board {
         return _turn;
     }
 
+    /** Return a 64-bit Zobrist hash of the current position, covering the
+     *  contents of every square and the side to move.  Equal positions
+     *  have equal keys, however they were reached. */
+    long key() {
+        return _key;
+    }
+
+    /** Return the Zobrist key (see key()) that the position would have
+     *  if it were transformed by symmetry SYMMETRY (see
+     *  Square.transform).  key(0) == key(). */
+    long key(int symmetry) {
+        long key = _turn == BLACK ? ZOBRIST_TURN : 0;
+        for (int k = 0; k < 6; k += 1) {
+            long[] keys = ZOBRIST[k >>> 1];
+            for (long bits = _masks[k]; bits != 0; bits &= bits - 1) {
+                int index = ((k & 1) << 6) + Long.numberOfTrailingZeros(bits);
+                key ^= keys[Square.transform(symmetry, index)];
+            }
+        }
+        return key;
+    }
+
     /** Return the number of moves (that have not been undone) for this
      *  board. */
     int numMoves() {
-        return moveStack.size();
+        return _base + _numMoves;
     }
 
     /** Return the winner in the current position, or null if the game is
-     *  not yet finished. */
+     *  not yet finished.  The result is cached until the board
+     *  changes. */
     Piece winner() {
-        if (!legalMoves(_turn).hasNext()) {
-            return _turn.opponent();
-        } else {
-            return null;
+        if (_winner == EMPTY) {
+            _winner = canMove(_turn) ? null : _turn.opponent();
         }
+        return _winner;
+    }
+
+    /** Return true iff SIDE (WHITE or BLACK) has a legal move.  It does
+     *  iff one of its queens has an empty neighbor: the queen can step
+     *  there and throw its spear back to where it came from. */
+    private boolean canMove(Piece side) {
+        long emptyLo = ~(_masks[0] | _masks[2] | _masks[4]),
+            emptyHi = ~(_masks[1] | _masks[3] | _masks[5]);
+        int queens = word(side, 0);
+        for (int w = 0; w < 2; w += 1) {
+            for (long bits = _masks[queens + w]; bits != 0;
+                 bits &= bits - 1) {
+                long[] neighbors =
+                    NEIGHBORS[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                if ((neighbors[0] & emptyLo | neighbors[1] & emptyHi) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /** Return the contents the square at S. */
     final Piece get(Square s) {
-        return get(s.col(), s.row());
+        return contents(s.index());
     }
 
     /** Return the contents of the square at (COL, ROW), where
      *  0 <= COL, ROW <= 9. */
     final Piece get(int col, int row) {
-        return boardMap.get(Square.sq(col, row));
+        return contents(col + row * SIZE);
     }
 
     /** Return the contents of the square at COL ROW. */
@@ -117,12 +188,12 @@ class Board {
 
     /** Set square S to P. */
     final void put(Piece p, Square s) {
-        put(p, s.col(), s.row());
+        set(p, s.index());
     }
 
     /** Set square (COL, ROW) to P. */
     final void put(Piece p, int col, int row) {
-        boardMap.put(Square.sq(col, row), p);
+        set(p, col + row * SIZE);
     }
 
     /** Set square COL ROW to P. */
@@ -130,52 +201,97 @@ class Board {
         put(p, col - 'a', row - '1');
     }
 
+    /** Return word W (0 or 1) of the mask of the squares holding P
+     *  (WHITE, BLACK, or SPEAR).  The square with index I is bit I % 64 of
+     *  word I / 64. */
+    final long mask(Piece p, int w) {
+        return _masks[word(p, 0) + w];
+    }
+
+    /** Return true iff the square with index INDEX is empty. */
+    private boolean isEmpty(int index) {
+        int w = index >>> 6;
+        return ((_masks[w] | _masks[2 + w] | _masks[4 + w])
+                & (1L << index)) == 0;
+    }
+
+    /** Return the contents of the square with index INDEX. */
+    private Piece contents(int index) {
+        int w = index >>> 6;
+        long bit = 1L << index;
+        if ((_masks[w] & bit) != 0) {
+            return WHITE;
+        } else if ((_masks[2 + w] & bit) != 0) {
+            return BLACK;
+        } else if ((_masks[4 + w] & bit) != 0) {
+            return SPEAR;
+        } else {
+            return EMPTY;
+        }
+    }
+
+    /** Set the square with index INDEX to P. */
+    private void set(Piece p, int index) {
+        Piece old = contents(index);
+        if (old != EMPTY) {
+            _key ^= ZOBRIST[old.ordinal() - 1][index];
+        }
+        if (p != EMPTY) {
+            _key ^= ZOBRIST[p.ordinal() - 1][index];
+        }
+        int w = index >>> 6;
+        long bit = 1L << index;
+        _masks[w] &= ~bit;
+        _masks[2 + w] &= ~bit;
+        _masks[4 + w] &= ~bit;
+        if (p != EMPTY) {
+            _masks[word(p, index)] |= bit;
+        }
+        _winner = EMPTY;
+    }
+
+    /** Return the index in _masks of the word holding bit INDEX of the
+     *  mask for P (WHITE, BLACK, or SPEAR). */
+    private static int word(Piece p, int index) {
+        return 2 * (p.ordinal() - 1) + (index >>> 6);
+    }
+
     /** Return true iff FROM - TO is an unblocked queen move on the current
      *  board, ignoring the contents of ASEMPTY, if it is encountered.
      *  For this to be true, FROM-TO must be a queen move and the
      *  squares along it, other than FROM and ASEMPTY, must be
      *  empty. ASEMPTY may be null, in which case it has no effect. */
     boolean isUnblockedMove(Square from, Square to, Square asEmpty) {
-        try {
-            from.isQueenMove(to);
-        } catch (NullPointerException a) {
+        if (to == null) {
             return false;
         }
-
-        if (!from.isQueenMove(to)) {
+        int dir = from.direction(to);
+        if (dir < 0) {
             return false;
         }
-        int direction = from.direction(to);
-        int rowdif = Math.abs(from.row() - to.row());
-        int coldif = Math.abs(from.col() - to.col());
-        int numSteps;
-        if (rowdif == coldif) {
-            numSteps = rowdif;
-        } else if (rowdif == 0) {
-            numSteps = coldif;
-        } else {
-            numSteps = rowdif;
-        }
-        for (int i = 1; i <= numSteps; i++) {
-            if (from.queenMove(direction, i) == asEmpty) {
-                continue;
-            } else if (boardMap.get(from.queenMove(direction, i)) != EMPTY) {
-                return false;
+        long lo = from.rayMask(dir, 0) & ~to.rayMask(dir, 0)
+            & (_masks[0] | _masks[2] | _masks[4]),
+            hi = from.rayMask(dir, 1) & ~to.rayMask(dir, 1)
+            & (_masks[1] | _masks[3] | _masks[5]);
+        if (asEmpty != null) {
+            if (asEmpty.index() < 64) {
+                lo &= ~(1L << asEmpty.index());
+            } else {
+                hi &= ~(1L << asEmpty.index());
             }
         }
-        return true;
+        return (lo | hi) == 0;
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
     boolean isLegal(Square from) {
-        return boardMap.get(from) == _turn;
+        return get(from) == _turn;
     }
 
     /** Return true iff FROM-TO is a valid first part of move, ignoring
      *  spear throwing. */
     boolean isLegal(Square from, Square to) {
-        return from.isQueenMove(to) && isLegal(from)
-                && isUnblockedMove(from, to, null);
+        return isLegal(from) && isUnblockedMove(from, to, null);
     }
 
     /** Return true iff FROM-TO(SPEAR) is a legal move in the current
@@ -192,11 +308,7 @@ class Board {
 
     /** Move FROM-TO(SPEAR), assuming this is a legal move. */
     void makeMove(Square from, Square to, Square spear) {
-        boardMap.put(to, boardMap.get(from));
-        boardMap.put(from, EMPTY);
-        boardMap.put(spear, SPEAR);
-        moveStack.push(Move.mv(from, to, spear));
-        _turn = _turn.opponent();
+        makeMove(Move.code(from.index(), to.index(), spear.index()));
     }
 
     /** Move according to MOVE, assuming it is a legal move. */
@@ -204,16 +316,41 @@ class Board {
         makeMove(move.from(), move.to(), move.spear());
     }
 
-    /** Undo one move.  Has no effect on the initial board. */
+    /** Make the move whose packed code (see Move.code) is CODE, assuming
+     *  it is a legal move. */
+    void makeMove(int code) {
+        int f = Move.from(code), t = Move.to(code), s = Move.spear(code);
+        Piece piece = contents(f);
+        int queen = word(piece, 0);
+        _masks[queen + (f >>> 6)] &= ~(1L << f);
+        _masks[queen + (t >>> 6)] |= 1L << t;
+        _masks[4 + (s >>> 6)] |= 1L << s;
+        long[] keys = ZOBRIST[piece.ordinal() - 1];
+        _key ^= keys[f] ^ keys[t] ^ ZOBRIST[2][s] ^ ZOBRIST_TURN;
+        _history[_numMoves] = code;
+        _numMoves += 1;
+        _turn = _turn.opponent();
+        _winner = EMPTY;
+    }
+
+    /** Undo one move.  It is an error to undo a move made before the
+     *  board's history began. */
     void undo() {
-        if (moveStack.isEmpty()) {
+        if (_numMoves == 0) {
             throw new IllegalCallerException("No moves to undo");
         }
-        Move stackTop = moveStack.pop();
-        boardMap.put(stackTop.spear(), EMPTY);
-        boardMap.put(stackTop.from(), boardMap.get(stackTop.to()));
-        boardMap.put(stackTop.to(), EMPTY);
+        _numMoves -= 1;
+        int code = _history[_numMoves];
+        int f = Move.from(code), t = Move.to(code), s = Move.spear(code);
+        _masks[4 + (s >>> 6)] &= ~(1L << s);
+        Piece piece = contents(t);
+        int queen = word(piece, 0);
+        _masks[queen + (t >>> 6)] &= ~(1L << t);
+        _masks[queen + (f >>> 6)] |= 1L << f;
+        long[] keys = ZOBRIST[piece.ordinal() - 1];
+        _key ^= keys[f] ^ keys[t] ^ ZOBRIST[2][s] ^ ZOBRIST_TURN;
         _turn = _turn.opponent();
+        _winner = EMPTY;
     }
 
     /** Return an Iterator over the Squares that are reachable by an
@@ -238,6 +375,42 @@ class Board {
         return new LegalMoveIterator(side);
     }
 
+    /** Store the packed codes (see Move.code) of all legal moves for SIDE
+     *  on the current board (regardless of whose turn it is) into MOVES,
+     *  and return their number.  MOVES must have room for MAX_MOVES
+     *  codes.  The moves are in the same order as legalMoves(SIDE)
+     *  yields them. */
+    int legalMoves(Piece side, int[] moves) {
+        int n = 0;
+        for (int w = 0; w < 2; w += 1) {
+            long queens = _masks[word(side, 0) + w];
+            while (queens != 0) {
+                int from = 64 * w + Long.numberOfTrailingZeros(queens);
+                queens &= queens - 1;
+                Square start = Square.sq(from);
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (Square to : start.ray(dir)) {
+                        if (!isEmpty(to.index())) {
+                            break;
+                        }
+                        int move = Move.code(from, to.index(), 0);
+                        for (int dir2 = 0; dir2 < 8; dir2 += 1) {
+                            for (Square spear : to.ray(dir2)) {
+                                if (spear != start
+                                    && !isEmpty(spear.index())) {
+                                    break;
+                                }
+                                moves[n] = move | (spear.index() << 14);
+                                n += 1;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
     /** An iterator used by reachableFrom. */
     private class ReachableFromIterator implements Iterator<Square> {
 
@@ -246,7 +419,8 @@ class Board {
         ReachableFromIterator(Square from, Square asEmpty) {
             _from = from;
             _dir = 0;
-            _steps = 0;
+            _ray = from.ray(0);
+            _steps = -1;
             _asEmpty = asEmpty;
             toNext();
         }
@@ -258,24 +432,29 @@ class Board {
 
         @Override
         public Square next() {
-            Square to = _from.queenMove(_dir, _steps);
+            Square to = _ray[_steps];
             toNext();
             return to;
         }
 
         /** Advance _dir and _steps, so that the next valid Square is
-         *  _steps steps in direction _dir from _from. */
+         *  _ray[_steps], where _ray is the ray from _from in direction
+         *  _dir. */
         private void toNext() {
             _steps++;
-            while (_dir < 8 && _from.queenMove(_dir, _steps) == null) {
-                _dir++;
-                _steps = 1;
-            }
-            while (_dir < 8
-                    && !isUnblockedMove(_from,
-                    _from.queenMove(_dir, _steps), _asEmpty)) {
+            while (true) {
+                if (_steps < _ray.length) {
+                    Square to = _ray[_steps];
+                    if (to == _asEmpty || get(to) == EMPTY) {
+                        return;
+                    }
+                }
                 _dir++;
-                _steps = 1;
+                if (_dir == 8) {
+                    return;
+                }
+                _ray = _from.ray(_dir);
+                _steps = 0;
             }
         }
 
@@ -283,7 +462,9 @@ class Board {
         private Square _from;
         /** Current direction. */
         private int _dir;
-        /** Current distance. */
+        /** The Squares in direction _dir from _from. */
+        private Square[] _ray;
+        /** Index in _ray of the current Square. */
         private int _steps;
         /** Square treated as empty. */
         private Square _asEmpty;
@@ -358,7 +539,7 @@ class Board {
         for (int i = 9; i >= 0; i--) {
             String row = "  ";
             for (int j = 0; j <= 9; j++) {
-                row += (" " + boardMap.get(Square.sq(j, i)));
+                row += (" " + get(j, i));
             }
             row += "\n";
             result += row;
@@ -370,9 +551,41 @@ class Board {
     private static final Iterator<Square> NO_SQUARES =
         Collections.emptyIterator();
 
+    /** Zobrist keys: ZOBRIST[k][i] is the key for a white queen (k = 0),
+     *  black queen (k = 1), or spear (k = 2) on the square with index i. */
+    private static final long[][] ZOBRIST = new long[3][SIZE * SIZE];
+
+    /** NEIGHBORS[i][w] is word w of the mask of the squares a king move
+     *  from the square with index i. */
+    private static final long[][] NEIGHBORS = new long[SIZE * SIZE][2];
+
+    /** The Zobrist key for black to move. */
+    private static final long ZOBRIST_TURN;
+
+    static {
+        Random keys = new Random(0x616d617a6f6e73L);
+        for (long[] plane : ZOBRIST) {
+            for (int i = 0; i < plane.length; i += 1) {
+                plane[i] = keys.nextLong();
+            }
+        }
+        ZOBRIST_TURN = keys.nextLong();
+        for (int i = 0; i < SIZE * SIZE; i += 1) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                Square[] ray = Square.sq(i).ray(dir);
+                if (ray.length > 0) {
+                    int j = ray[0].index();
+                    NEIGHBORS[i][j >>> 6] |= 1L << j;
+                }
+            }
+        }
+    }
+
     /** Piece whose turn it is (BLACK or WHITE). */
     private Piece _turn;
-    /** Cached value of winner on this board, or EMPTY if it has not been
-     *  computed. */
+    /** The Zobrist key of the current position (see key()). */
+    private long _key;
+    /** Cached value of winner on this board (null if none), or EMPTY if
+     *  it has not been computed. */
     private Piece _winner;
 }
@@ -3,14 +3,10 @@ package amazons;
 import java.io.PrintStream;
 import java.util.Random;
 import java.util.Scanner;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-import java.util.function.Consumer;
 
 import static amazons.Utils.*;
 import static amazons.Piece.*;
 import static amazons.Square.sq;
-import static amazons.Square.SQ;
 
 /** The input/output and GUI controller for play of Amazons.
  *  @author Ani Gottiparthy*/
@@ -73,6 +69,9 @@ final class Controller {
             }
 
         }
+        _white.dispose();
+        _black.dispose();
+        stopSolving();
         if (_logFile != null) {
             _logFile.close();
         }
@@ -127,122 +126,277 @@ final class Controller {
         _reporter.reportMove(move);
     }
 
-    /** A Command is pair (<pattern>, <processor>), where <pattern> is a
-     *  Matcher that matches instances of a particular command, and
-     *  <processor> is a functional object whose .accept method takes a
-     *  successfully matched Matcher and performs some operation. */
+    /** Report that SIDE searched to DEPTH levels in MILLIS milliseconds
+     *  to find its last move, with NODES[k] nodes searched by its kth
+     *  thread.  The report also goes into the log (as a comment), if
+     *  there is one. */
+    void reportSearch(Piece side, int depth, long millis, long[] nodes) {
+        if (_logFile != null) {
+            long total = 0;
+            for (long n : nodes) {
+                total += n;
+            }
+            _logFile.printf("# %s searched to depth %d in %d ms,"
+                            + " %d nodes%n", side.toName(), depth, millis,
+                            total);
+            _logFile.flush();
+        }
+        _reporter.reportSearch(side, depth, millis, nodes);
+    }
+
+    /** The operation performed by a Command. */
+    private interface Processor {
+        /** Perform the operation, taking its operands from the characters
+         *  START to END-1 of LINE (none if START == END), and return true,
+         *  or return false if the operands are malformed. */
+        boolean accept(String line, int start, int end);
+    }
+
+    /** A Command is pair (<name>, <processor>), where <name> is the
+     *  keyword that starts instances of a particular command, and
+     *  <processor> is a functional object whose .accept method takes the
+     *  rest of the command and performs some operation. */
     private static class Command {
-        /** A new Command that matches PATN (a regular expression) and uses
-         *  PROCESSOR to process commands that match the pattern. */
-        Command(String patn, Consumer<Matcher> processor) {
-            _matcher = Pattern.compile(patn).matcher("");
+        /** A new Command named NAME that uses PROCESSOR to process
+         *  commands that start with NAME. */
+        Command(String name, Processor processor) {
+            _name = name;
             _processor = processor;
         }
 
-        /** A Matcher matching my pattern. */
-        protected final Matcher _matcher;
+        /** Return true iff the characters START to END-1 of LINE are my
+         *  name, ignoring case. */
+        boolean named(String line, int start, int end) {
+            return end - start == _name.length()
+                && line.regionMatches(true, start, _name, 0, end - start);
+        }
+
+        /** My name. */
+        protected final String _name;
         /** The function object that implements my command. */
-        protected final Consumer<Matcher> _processor;
+        protected final Processor _processor;
     }
 
     /** A list of Commands describing the valid textual commands to the
-     *  Amazons program and the methods to process them. */
-    private Command[] _commands = {
-        new Command("quit$", this::doQuit),
-        new Command("seed\\s+(\\d+)$", this::doSeed),
-        new Command("dump$", this::doDump),
-        new Command("new$", this::doNew),
-        new Command(String.format("%s-%s\\(%s\\)|%s\\s+%s\\s+%s",
-                SQ, SQ, SQ, SQ, SQ, SQ), this::doMove),
-        new Command("auto\\s+((?i)black|(?i)white)$", this::doAuto),
-        new Command("manual\\s+((?i)black|(?i)white)$", this::doManual),
+     *  Amazons program (other than moves) and the methods to process
+     *  them. */
+    private final Command[] _commands = {
+        new Command("quit", this::doQuit),
+        new Command("seed", this::doSeed),
+        new Command("dump", this::doDump),
+        new Command("solve", this::doSolve),
+        new Command("new", this::doNew),
+        new Command("auto", this::doAuto),
+        new Command("manual", this::doManual),
     };
 
-    /** A Matcher whose Pattern matches comments. */
-    private final Matcher _comment = Pattern.compile("#.*").matcher("");
-
     /** Check that CMND is one of the valid Amazons commands and execute it, if
-     *  so, raising an IllegalArgumentException otherwise. */
+     *  so, raising an IllegalArgumentException otherwise.  A command is a
+     *  move (see Move.parse) or a keyword (in any case) followed by its
+     *  operands, separated by whitespace, and anything from a '#' on is a
+     *  comment.  The command is parsed in place, creating no strings
+     *  unless it is erroneous. */
     private void executeCommand(String cmnd) {
         if (_logFile != null) {
             _logFile.println(cmnd);
             _logFile.flush();
         }
 
-        _comment.reset(cmnd);
-        cmnd = _comment.replaceFirst("").trim().toLowerCase();
-
-        if (cmnd.isEmpty()) {
+        int end = cmnd.indexOf('#');
+        if (end < 0) {
+            end = cmnd.length();
+        }
+        int start = Move.skipWhitespace(cmnd, 0, end);
+        while (end > start && Character.isWhitespace(cmnd.charAt(end - 1))) {
+            end -= 1;
+        }
+        if (start == end) {
             return;
         }
-        for (Command parser : _commands) {
-            parser._matcher.reset(cmnd);
-            if (parser._matcher.matches()) {
-                parser._processor.accept(parser._matcher);
-                return;
+        int move = Move.parse(cmnd, start, end);
+        if (move >= 0) {
+            doMove(move);
+            return;
+        }
+        int wordEnd = start;
+        while (wordEnd < end && !Character.isWhitespace(cmnd.charAt(wordEnd))) {
+            wordEnd += 1;
+        }
+        int operands = Move.skipWhitespace(cmnd, wordEnd, end);
+        for (Command command : _commands) {
+            if (command.named(cmnd, start, wordEnd)) {
+                if (command._processor.accept(cmnd, operands, end)) {
+                    return;
+                }
+                break;
             }
         }
-        throw error("Bad command: %s", cmnd);
+        throw error("Bad command: %s", cmnd.substring(start, end)
+                    .toLowerCase());
     }
 
-    /** Make an auto player using MAT. */
-    private void doAuto(Matcher mat) {
-        String temp = mat.group(1);
-        temp = temp.toUpperCase();
-        if (temp.equals("WHITE")) {
+    /** Return the side named by the characters START to END-1 of LINE
+     *  ("white" or "black", in any case), or null if they name neither. */
+    private static Piece side(String line, int start, int end) {
+        for (Piece side : new Piece[] { WHITE, BLACK }) {
+            String name = side.toName();
+            if (end - start == name.length()
+                && line.regionMatches(true, start, name, 0, end - start)) {
+                return side;
+            }
+        }
+        return null;
+    }
+
+    /** Return the nonnegative number that is the characters START to
+     *  END-1 of LINE, or -1 if they are not a number. */
+    private static long number(String line, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        for (int k = start; k < end; k += 1) {
+            if (!Character.isDigit(line.charAt(k))) {
+                return -1;
+            }
+        }
+        try {
+            return Long.parseLong(line, start, end, 10);
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /** Command "auto SIDE", SIDE being the characters START to END-1 of
+     *  LINE: make an auto player for SIDE. */
+    private boolean doAuto(String line, int start, int end) {
+        Piece side = side(line, start, end);
+        if (side == WHITE) {
+            _white.dispose();
             _white = _autoPlayerTemplate.create(WHITE, this);
-        } else {
+        } else if (side == BLACK) {
+            _black.dispose();
             _black = _autoPlayerTemplate.create(BLACK, this);
         }
+        return side != null;
     }
 
-    /** Make a manual player using MAT. */
-    private void doManual(Matcher mat) {
-        String temp = mat.group(1);
-        temp = temp.toUpperCase();
-        if (temp.equals("WHITE")) {
+    /** Command "manual SIDE", SIDE being the characters START to END-1 of
+     *  LINE: make a manual player for SIDE. */
+    private boolean doManual(String line, int start, int end) {
+        Piece side = side(line, start, end);
+        if (side == WHITE) {
+            _white.dispose();
             _white = _manualPlayerTemplate.create(WHITE, this);
-        } else {
+        } else if (side == BLACK) {
+            _black.dispose();
             _black = _manualPlayerTemplate.create(BLACK, this);
         }
+        return side != null;
     }
 
-    /** Make a move using MAT. */
-    private void doMove(Matcher mat) {
-        int k = mat.group(1) != null ? 1 : 4;
-        Square from = sq(mat.group(k)),
-                to = sq(mat.group(k + 1)),
-                spear = sq(mat.group(k + 2));
+    /** Make the move whose packed code is MOVE, if it is legal. */
+    private void doMove(int move) {
+        Square from = sq(Move.from(move)),
+                to = sq(Move.to(move)),
+                spear = sq(Move.spear(move));
         if (_board.isLegal(from, to, spear)) {
-            _board.makeMove(Move.mv(from, to, spear));
+            Move mv = Move.mv(move);
+            _board.makeMove(mv);
+            _white.moveMade(mv);
+            _black.moveMade(mv);
         }
     }
 
-    /** Command "new". */
-    private void doNew(Matcher unused) {
+    /** Command "new", which has no operands (START == END). */
+    private boolean doNew(String unused, int start, int end) {
+        if (start != end) {
+            return false;
+        }
         _board.init();
         _winner = null;
+        stopSolving();
+        _white.dispose();
+        _black.dispose();
         _white = _manualPlayerTemplate.create(WHITE, this);
         _black = _autoPlayerTemplate.create(BLACK, this);
+        return true;
     }
 
-    /** Command "quit". */
-    private void doQuit(Matcher unused) {
+    /** Command "quit", which has no operands (START == END). */
+    private boolean doQuit(String unused, int start, int end) {
+        if (start != end) {
+            return false;
+        }
         _playing = false;
+        return true;
     }
 
-    /** Command "seed N" where N is the first group of MAT. */
-    private void doSeed(Matcher mat) {
-        try {
-            setSeed(Long.parseLong(mat.group(1)));
-        } catch (NumberFormatException excp) {
-            throw error("number too large");
+    /** Command "seed N", N being the characters START to END-1 of
+     *  LINE. */
+    private boolean doSeed(String line, int start, int end) {
+        long seed = number(line, start, end);
+        if (seed >= 0) {
+            setSeed(seed);
+        }
+        return seed >= 0;
+    }
+
+    /** Command "solve [N]": start finding the winner of the current
+     *  position in the background, expanding at most N positions (the
+     *  characters START to END-1 of LINE, if any) or SOLVE_NODES.  The
+     *  result is reported when found.  Another solve, or a new game,
+     *  abandons the search. */
+    private boolean doSolve(String line, int start, int end) {
+        long limit = start == end ? SOLVE_NODES : number(line, start, end);
+        if (limit < 0) {
+            return false;
         }
+        stopSolving();
+        ProofSolver solver = new ProofSolver(SOLVE_ENTRIES);
+        Board position = new Board(_board);
+        long nodeLimit = limit;
+        _solver = solver;
+        Thread thread =
+            new Thread(() -> reportSolution(solver, position, nodeLimit));
+        thread.setDaemon(true);
+        thread.start();
+        return true;
     }
 
-    /** Dump the contents of the board on standard output. */
-    private void doDump(Matcher unused) {
+    /** Find the winner of POSITION with SOLVER, expanding at most
+     *  NODELIMIT positions, and report it, unless SOLVER is abandoned
+     *  first. */
+    private void reportSolution(ProofSolver solver, Board position,
+                                long nodeLimit) {
+        Piece winner = solver.solve(position, nodeLimit);
+        if (_solver != solver) {
+            return;
+        } else if (winner == null) {
+            reportNote("No result after %d positions.", solver.nodes());
+        } else if (solver.winningMove() != 0) {
+            reportNote("%s wins with %s.", winner.toName(),
+                       Move.mv(solver.winningMove()));
+        } else {
+            reportNote("%s wins.", winner.toName());
+        }
+    }
+
+    /** Abandon the current solve command, if any. */
+    private void stopSolving() {
+        if (_solver != null) {
+            _solver.stop();
+            _solver = null;
+        }
+    }
+
+    /** Command "dump", which has no operands (START == END): dump the
+     *  contents of the board on standard output. */
+    private boolean doDump(String unused, int start, int end) {
+        if (start != end) {
+            return false;
+        }
         System.out.printf("===%n%s===%n", _board);
+        return true;
     }
 
     /** The board. */
@@ -280,4 +434,13 @@ final class Controller {
     /** Reporter for messages and errors. */
     private Reporter _reporter;
 
+    /** The solver working on the last solve command, or null if none. */
+    private volatile ProofSolver _solver;
+
+    /** Default node limit for the solve command. */
+    private static final long SOLVE_NODES = 1_000_000;
+
+    /** Number of table entries for the solve command. */
+    private static final int SOLVE_ENTRIES = 1 << 20;
+
 }
@@ -0,0 +1,269 @@
+package amazons;
+
+import static amazons.Piece.*;
+
+/** A solver for Amazons endgames in which the queens have been walled
+ *  off from each other.  Once no empty square can be reached (by a chain
+ *  of king moves through empty squares) by queens of both colors, the
+ *  board falls into separate regions, each of which only one side can
+ *  use.  The game then comes down to counting: each side can make some
+ *  number of moves in its own regions, and the side to move wins iff it
+ *  can make more moves than its opponent.
+ *
+ *  The number of moves a side can make in a region is found by a
+ *  depth-first search of the moves within the region, memoized by a hash
+ *  of the region's contents.  Each move uses up one empty square, so a
+ *  region with N empty squares allows at most N moves, and the search
+ *  stops as soon as it finds that many.  A search that exceeds its node
+ *  limit returns the most moves it has found so far, and the result is
+ *  marked inexact.
+ *
+ *  Regions are held as bitboards in the layout of Board's masks.  An
+ *  Endgame keeps its memo table and results in fields, so it must be
+ *  confined to one thread at a time.
+ *  @author Ani Gottiparthy
+ */
+final class Endgame {
+
+    /** Analyze BOARD, searching at most NODELIMIT nodes in all.  Return
+     *  true iff its queens are separated as described above, in which case
+     *  moves, exact, and bestMove then describe the results. */
+    boolean solve(Board board, int nodeLimit) {
+        long whiteLo = board.mask(WHITE, 0), whiteHi = board.mask(WHITE, 1),
+            blackLo = board.mask(BLACK, 0), blackHi = board.mask(BLACK, 1);
+        long emptyLo = ~(whiteLo | blackLo | board.mask(SPEAR, 0)),
+            emptyHi = ~(whiteHi | blackHi | board.mask(SPEAR, 1)) & HI_MASK;
+        _territory.flood(whiteLo, whiteHi, emptyLo, emptyHi);
+        long reachLo = _territory.lo(), reachHi = _territory.hi();
+        _territory.flood(blackLo, blackHi, emptyLo, emptyHi);
+        if (((reachLo & _territory.lo()) | (reachHi & _territory.hi()))
+            != 0) {
+            return false;
+        }
+        _nodeLimit = nodeLimit;
+        _nodes = 0;
+        _exhausted = false;
+        Piece turn = board.turn();
+        _whiteMoves = regions(whiteLo, whiteHi, emptyLo, emptyHi,
+                              turn == WHITE);
+        _blackMoves = regions(blackLo, blackHi, emptyLo, emptyHi,
+                              turn == BLACK);
+        return true;
+    }
+
+    /** Return the number of moves SIDE can make in the position last
+     *  analyzed by solve.  If !exact(), this is only a lower bound. */
+    int moves(Piece side) {
+        return side == WHITE ? _whiteMoves : _blackMoves;
+    }
+
+    /** Return true iff the counts from the last call of solve are
+     *  exact. */
+    boolean exact() {
+        return !_exhausted;
+    }
+
+    /** Return the side that wins the position last analyzed by solve,
+     *  assuming both sides play their best, or null if that is not known
+     *  exactly.  TURN is the side to move in that position. */
+    Piece winner(Piece turn) {
+        if (_exhausted) {
+            return null;
+        }
+        return moves(turn) > moves(turn.opponent()) ? turn : turn.opponent();
+    }
+
+    /** Return a move (as a packed code, see Move.code) that achieves the
+     *  count moves(turn) for the side to move in the position last
+     *  analyzed by solve, or 0 if that side has no move. */
+    int bestMove() {
+        return _bestMove;
+    }
+
+    /** Return the total number of moves that the queens QUEENSLO/HI can
+     *  make in their regions of the empty squares EMPTYLO/HI.  If TOMOVE,
+     *  also set _bestMove to a first move for them in their most valuable
+     *  region. */
+    private int regions(long queensLo, long queensHi, long emptyLo,
+                        long emptyHi, boolean toMove) {
+        int total = 0, most = -1;
+        if (toMove) {
+            _bestMove = 0;
+        }
+        while ((queensLo | queensHi) != 0) {
+            long qLo = queensLo & -queensLo,
+                qHi = qLo != 0 ? 0 : queensHi & -queensHi;
+            _territory.flood(qLo, qHi, emptyLo, emptyHi);
+            long regionLo = _territory.lo(), regionHi = _territory.hi();
+            long inLo = 0, inHi = 0;
+            for (int w = 0; w < 2; w += 1) {
+                for (long bits = w == 0 ? queensLo : queensHi; bits != 0;
+                     bits &= bits - 1) {
+                    long bit = bits & -bits;
+                    _territory.reach(w == 0 ? bit : 0, w == 0 ? 0 : bit,
+                                     regionLo, regionHi, false);
+                    if ((_territory.lo() | _territory.hi()) != 0) {
+                        if (w == 0) {
+                            inLo |= bit;
+                        } else {
+                            inHi |= bit;
+                        }
+                    }
+                }
+            }
+            inLo |= qLo;
+            inHi |= qHi;
+            queensLo &= ~inLo;
+            queensHi &= ~inHi;
+            int moves = search(regionLo, regionHi, inLo, inHi);
+            total += moves;
+            if (toMove && moves > most) {
+                most = moves;
+                _bestMove = _move;
+            }
+        }
+        return total;
+    }
+
+    /** Return the most moves that the queens QUEENSLO/HI can make in
+     *  their region EMPTYLO/HI, setting _move to a first move that
+     *  achieves it (or 0 if there is no move).  If the node limit runs
+     *  out, return the most found so far. */
+    private int search(long emptyLo, long emptyHi, long queensLo,
+                       long queensHi) {
+        _move = 0;
+        if (_nodes >= _nodeLimit) {
+            _exhausted = true;
+            return 0;
+        }
+        _nodes += 1;
+        _territory.flood(queensLo, queensHi, emptyLo, emptyHi);
+        emptyLo = _territory.lo();
+        emptyHi = _territory.hi();
+        int bound = Long.bitCount(emptyLo) + Long.bitCount(emptyHi);
+        if (bound == 0) {
+            return 0;
+        }
+        long key = hash(emptyLo, emptyHi, queensLo, queensHi);
+        int slot = probe(key);
+        if (_keys[slot] == key) {
+            _move = _values[slot] >>> 7;
+            return _values[slot] & 0x7f;
+        }
+
+        int best = 0, bestMove = 0;
+        search:
+        for (int w = 0; w < 2; w += 1) {
+            for (long bits = w == 0 ? queensLo : queensHi; bits != 0;
+                 bits &= bits - 1) {
+                int from = 64 * w + Long.numberOfTrailingZeros(bits);
+                long vacatedLo = emptyLo | (from < 64 ? 1L << from : 0),
+                    vacatedHi = emptyHi | (from < 64 ? 0 : 1L << from);
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (Square to : Square.sq(from).ray(dir)) {
+                        int t = to.index();
+                        if (!contains(emptyLo, emptyHi, t)) {
+                            break;
+                        }
+                        long afterLo = vacatedLo & ~(t < 64 ? 1L << t : 0),
+                            afterHi = vacatedHi & ~(t < 64 ? 0 : 1L << t);
+                        long movedLo = queensLo, movedHi = queensHi;
+                        if (from < 64) {
+                            movedLo ^= 1L << from;
+                        } else {
+                            movedHi ^= 1L << from;
+                        }
+                        if (t < 64) {
+                            movedLo |= 1L << t;
+                        } else {
+                            movedHi |= 1L << t;
+                        }
+                        for (int d = 0; d < 8; d += 1) {
+                            for (Square spear : to.ray(d)) {
+                                int s = spear.index();
+                                if (!contains(afterLo, afterHi, s)) {
+                                    break;
+                                }
+                                int value = 1 + search(
+                                    afterLo & ~(s < 64 ? 1L << s : 0),
+                                    afterHi & ~(s < 64 ? 0 : 1L << s),
+                                    movedLo, movedHi);
+                                if (value > best) {
+                                    best = value;
+                                    bestMove = Move.code(from, t, s);
+                                }
+                                if (best == bound || _exhausted) {
+                                    break search;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (!_exhausted) {
+            _keys[slot] = key;
+            _values[slot] = best | bestMove << 7;
+        }
+        _move = bestMove;
+        return best;
+    }
+
+    /** Return the index in _keys of the entry for KEY, if present, and
+     *  otherwise of the slot in which to store it. */
+    private int probe(long key) {
+        int start = (int) (key ^ (key >>> 32)) & (MEMO_SIZE - 1);
+        for (int k = 0; k < PROBES; k += 1) {
+            int slot = (start + k) & (MEMO_SIZE - 1);
+            if (_keys[slot] == key || _keys[slot] == 0) {
+                return slot;
+            }
+        }
+        return start;
+    }
+
+    /** Return true iff square index I is in the set LO/HI. */
+    private static boolean contains(long lo, long hi, int i) {
+        return ((i < 64 ? lo : hi) & (1L << i)) != 0;
+    }
+
+    /** Return a nonzero hash of the region with empty squares
+     *  EMPTYLO/HI and queens QUEENSLO/HI. */
+    private static long hash(long emptyLo, long emptyHi, long queensLo,
+                             long queensHi) {
+        long h = emptyLo * 0x9e3779b97f4a7c15L;
+        h = (h ^ (h >>> 29) ^ emptyHi) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 32) ^ queensLo) * 0x94d049bb133111ebL;
+        h = (h ^ (h >>> 29) ^ queensHi) * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        return h == 0 ? 1 : h;
+    }
+
+    /** The number of entries in the memo table (a power of 2). */
+    private static final int MEMO_SIZE = 1 << 16;
+
+    /** The number of slots searched for a key in the memo table. */
+    private static final int PROBES = 4;
+
+    /** The high word of a mask of the whole board. */
+    private static final long HI_MASK =
+        (1L << (Board.SIZE * Board.SIZE - 64)) - 1;
+
+    /** Memo table keys (hashes of regions, 0 for an empty slot). */
+    private final long[] _keys = new long[MEMO_SIZE];
+    /** Memo table values: the number of moves in the region in the low 7
+     *  bits, and the move that achieves it above them. */
+    private final int[] _values = new int[MEMO_SIZE];
+    /** Flood fills and reachability. */
+    private final Territory _territory = new Territory();
+
+    /** The node limit and number of nodes searched in the current
+     *  solve. */
+    private int _nodeLimit, _nodes;
+    /** True iff the current solve has run out of nodes. */
+    private boolean _exhausted;
+    /** Results of the last solve. */
+    private int _whiteMoves, _blackMoves, _bestMove;
+    /** The move found by the last call of search. */
+    private int _move;
+}
@@ -93,6 +93,11 @@ class GUI extends TopLevel implements View, Reporter {
     public void reportMove(Move unused) {
     }
 
+    @Override
+    public void reportSearch(Piece unused, int unusedDepth, long unusedTime,
+                             long[] unusedNodes) {
+    }
+
     /** The board widget. */
     private BoardWidget _widget;
 
@@ -41,6 +41,11 @@ class GUIPlayer extends Player implements Reporter {
     public void reportMove(Move unused) {
     }
 
+    @Override
+    public void reportSearch(Piece unused, int unusedDepth, long unusedTime,
+                             long[] unusedNodes) {
+    }
+
     /** The GUI I use for input. */
     private GUI _gui;
 }
@@ -0,0 +1,111 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+
+/** The record of one game from the start position, as stored in a game
+ *  archive (see ArchiveWriter and ArchiveReader): its moves, its result,
+ *  the engines that played it, and the time each took.
+ *  @author Ani Gottiparthy
+ */
+final class GameRecord {
+
+    /** A record of a game with the packed MOVES (see Move.code), the
+     *  first NUMMOVES of which were played, won by WINNER (WHITE, BLACK,
+     *  or null if unfinished), between the engines named WHITENAME and
+     *  BLACKNAME, who took WHITEMILLIS and BLACKMILLIS milliseconds in
+     *  all, and started at time START (as by System.currentTimeMillis). */
+    GameRecord(int[] moves, int numMoves, Piece winner, String whiteName,
+               String blackName, int whiteMillis, int blackMillis,
+               long start) {
+        if (numMoves > MAX_MOVES) {
+            throw Utils.error("too many moves for a game: %d", numMoves);
+        }
+        if (winner != null && winner != WHITE && winner != BLACK) {
+            throw Utils.error("bad winner: %s", winner);
+        }
+        _moves = Arrays.copyOf(moves, numMoves);
+        _winner = winner;
+        _whiteName = whiteName;
+        _blackName = blackName;
+        _whiteMillis = whiteMillis;
+        _blackMillis = blackMillis;
+        _start = start;
+    }
+
+    /** Return the number of moves in the game. */
+    int numMoves() {
+        return _moves.length;
+    }
+
+    /** Return move #K (from 0) of the game, packed as by Move.code. */
+    int move(int k) {
+        return _moves[k];
+    }
+
+    /** Return the winner: WHITE, BLACK, or null if unfinished. */
+    Piece winner() {
+        return _winner;
+    }
+
+    /** Return the name of the engine that played PLAYER (WHITE or
+     *  BLACK). */
+    String name(Piece player) {
+        return player == WHITE ? _whiteName : _blackName;
+    }
+
+    /** Return the total milliseconds taken by PLAYER (WHITE or BLACK). */
+    int millis(Piece player) {
+        return player == WHITE ? _whiteMillis : _blackMillis;
+    }
+
+    /** Return the time at which the game started, as by
+     *  System.currentTimeMillis. */
+    long start() {
+        return _start;
+    }
+
+    /** Return a new Board set to the position at the end of the game. */
+    Board replay() {
+        Board board = new Board();
+        for (int move : _moves) {
+            board.makeMove(move);
+        }
+        return board;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GameRecord)) {
+            return false;
+        }
+        GameRecord other = (GameRecord) obj;
+        return Arrays.equals(_moves, other._moves)
+            && _winner == other._winner
+            && _whiteName.equals(other._whiteName)
+            && _blackName.equals(other._blackName)
+            && _whiteMillis == other._whiteMillis
+            && _blackMillis == other._blackMillis
+            && _start == other._start;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_moves) ^ Long.hashCode(_start);
+    }
+
+    /** The most moves in any game: each one fills a square. */
+    static final int MAX_MOVES = Board.SIZE * Board.SIZE - 8;
+
+    /** The moves. */
+    private final int[] _moves;
+    /** The winner. */
+    private final Piece _winner;
+    /** The engines' names. */
+    private final String _whiteName, _blackName;
+    /** The engines' total times in milliseconds. */
+    private final int _whiteMillis, _blackMillis;
+    /** The starting time. */
+    private final long _start;
+}
@@ -0,0 +1,367 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static amazons.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo Tree Search.  Each
+ *  iteration descends the tree of moves from the current position,
+ *  choosing children by UCT, plays a short random game (a playout) from
+ *  the position it reaches, and credits the result to every node on the
+ *  way down.  A move is split into two steps in the tree, the queen move
+ *  and then the spear throw, and a node gains children only as it is
+ *  visited (progressive widening), so the huge number of moves early in
+ *  the game does not dilute the search.  Playouts stop after a few moves
+ *  and are scored by the territory evaluation.  The search can stop after
+ *  any iteration, so it always keeps to its time limit.
+ *  @author Ani Gottiparthy
+ */
+class MCTSPlayer extends Player {
+
+    /** A new MCTSPlayer with no piece or controller (intended to produce
+     *  a template). */
+    MCTSPlayer() {
+        this(null, null);
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER. */
+    MCTSPlayer(Piece piece, Controller controller) {
+        super(piece, controller);
+        _moveMillis = DEFAULT_MOVE_MILLIS;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        MCTSPlayer result = new MCTSPlayer(piece, controller);
+        result._moveMillis = _moveMillis;
+        result._gameMillis = _gameMillis;
+        return result;
+    }
+
+    /** Limit the players created from me to MOVEMILLIS milliseconds per
+     *  move and GAMEMILLIS milliseconds per game.  A limit that is not
+     *  positive means no limit; at least one must be positive, since the
+     *  search stops only when its time runs out.  Returns this player. */
+    MCTSPlayer setTimeControl(long moveMillis, long gameMillis) {
+        if (moveMillis <= 0 && gameMillis <= 0) {
+            throw Utils.error("MCTS player needs a time limit");
+        }
+        _moveMillis = moveMillis;
+        _gameMillis = gameMillis;
+        return this;
+    }
+
+    @Override
+    String myMove() {
+        if (_random == null) {
+            _random = new Random(_controller.randInt(Integer.MAX_VALUE));
+        }
+        Move move = findMove(board());
+        _controller.reportSearch(_myPiece, _maxDepth, _millis,
+                                 new long[] { _playouts });
+        _controller.reportMove(move);
+        return move.toString();
+    }
+
+    /** Return a move for me from position BOARD, which must be my move
+     *  and have one.  Does not need a controller; without one, my random
+     *  choices are seeded arbitrarily. */
+    @Override
+    Move findMove(Board board) {
+        if (_timer == null) {
+            _timer = new TimeManager(_moveMillis, _gameMillis);
+        }
+        if (_random == null) {
+            _random = new Random();
+        }
+        if (_board == null) {
+            _board = new Board();
+        }
+        _board.copyPosition(board);
+        _timer.start(_board);
+        _maxDepth = 0;
+        Node root = new Node(null, 0, _myPiece.opponent());
+        _playouts = 0;
+        do {
+            iterate(root);
+            _playouts += 1;
+        } while (!_timer.expired());
+        _millis = _timer.stop();
+        Node queenMove = root.mostVisited();
+        Node spear = queenMove.mostVisited();
+        return Move.mv(spear._step);
+    }
+
+    /** Perform one iteration of the search from ROOT, whose position is
+     *  _board: select a path down the tree, expanding its last node, run
+     *  a playout from the position reached, and record the result along
+     *  the path.  Leaves _board as it was. */
+    private void iterate(Node root) {
+        Node node = root;
+        int made = 0;
+        Piece winner;
+        while (true) {
+            winner = node._queenMove == null ? _board.winner() : null;
+            if (winner != null) {
+                break;
+            }
+            Node child = node.select();
+            if (child._queenMove == null) {
+                _board.makeMove(child._step);
+                made += 1;
+            }
+            node = child;
+            if (child._visits == 0) {
+                break;
+            }
+        }
+        _maxDepth = Math.max(_maxDepth, made);
+        if (winner == null) {
+            if (node._queenMove == null) {
+                winner = playout();
+            } else {
+                Node spear = node.select();
+                _board.makeMove(spear._step);
+                made += 1;
+                winner = playout();
+                spear.update(winner);
+            }
+        }
+        for (; node != null; node = node._parent) {
+            node.update(winner);
+        }
+        for (; made > 0; made -= 1) {
+            _board.undo();
+        }
+    }
+
+    /** Play random moves from _board, for at most PLAYOUT_LENGTH moves or
+     *  until the game ends, and return the winner.  If the game does not
+     *  end, the side favored by the territory evaluation wins.  Leaves
+     *  _board as it was. */
+    private Piece playout() {
+        int made;
+        Piece winner = null;
+        for (made = 0; made < PLAYOUT_LENGTH; made += 1) {
+            int move = randomMove(_board.turn());
+            if (move < 0) {
+                winner = _board.turn().opponent();
+                break;
+            }
+            _board.makeMove(move);
+        }
+        if (winner == null) {
+            int score = _territory.evaluate(_board);
+            if (score == 0) {
+                winner = _board.turn().opponent();
+            } else {
+                winner = score > 0 ? WHITE : BLACK;
+            }
+        }
+        for (; made > 0; made -= 1) {
+            _board.undo();
+        }
+        return winner;
+    }
+
+    /** Return the packed code (see Move.code) of a random legal move for
+     *  SIDE on _board, or -1 if there is none.  Chooses a random queen
+     *  that can move, a random destination for it, and then a random
+     *  spear throw from there. */
+    private int randomMove(Piece side) {
+        int nQueens = 0;
+        for (int w = 0; w < 2; w += 1) {
+            for (long bits = _board.mask(side, w); bits != 0;
+                 bits &= bits - 1) {
+                _queens[nQueens] =
+                    Square.sq(64 * w + Long.numberOfTrailingZeros(bits));
+                nQueens += 1;
+            }
+        }
+        while (nQueens > 0) {
+            int k = _random.nextInt(nQueens);
+            Square from = _queens[k];
+            int nTo = collect(from, null, _targets);
+            if (nTo > 0) {
+                Square to = _targets[_random.nextInt(nTo)];
+                int nSpears = collect(to, from, _targets);
+                Square spear = _targets[_random.nextInt(nSpears)];
+                return Move.code(from.index(), to.index(), spear.index());
+            }
+            nQueens -= 1;
+            _queens[k] = _queens[nQueens];
+        }
+        return -1;
+    }
+
+    /** Store the Squares reachable from FROM on _board, treating ASEMPTY
+     *  (if not null) as empty, in RESULT, and return their number. */
+    private int collect(Square from, Square asEmpty, Square[] result) {
+        int n = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (Square s : from.ray(dir)) {
+                if (s != asEmpty && _board.get(s) != EMPTY) {
+                    break;
+                }
+                result[n] = s;
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** A node of the search tree.  A node is either a queen move (a
+     *  from-to pair whose children are the possible spear throws) or a
+     *  whole move, or the root (both of which have queen moves as
+     *  children). */
+    private class Node {
+
+        /** A node under PARENT for STEP, made by MOVER.  STEP is the
+         *  packed code (see Move.code) of a whole move if PARENT is a
+         *  queen move, and of a queen move (with spear 0) otherwise. */
+        Node(Node parent, int step, Piece mover) {
+            _parent = parent;
+            _step = step;
+            _mover = mover;
+            _queenMove = parent == null || parent._queenMove != null
+                ? null : Square.sq(Move.from(step));
+        }
+
+        /** Return the child to descend to next, adding a new child if
+         *  progressive widening allows.  For a whole move or the root,
+         *  _board must hold the position after it; for a queen move, the
+         *  position before it. */
+        Node select() {
+            if (_untried == null) {
+                _numUntried =
+                    _queenMove == null ? queenMoves() : spearThrows();
+                _untried = Arrays.copyOf(_steps, _numUntried);
+            }
+            int allowed = 1 + (int) (WIDENING * Math.sqrt(_visits));
+            if (_numUntried > 0 && _children.size() < allowed) {
+                int k = _random.nextInt(_numUntried);
+                int step = _untried[k];
+                _numUntried -= 1;
+                _untried[k] = _untried[_numUntried];
+                Node child = new Node(this, step, _queenMove == null
+                                      ? _board.turn() : _mover);
+                _children.add(child);
+                return child;
+            }
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            double logVisits = Math.log(_visits);
+            for (Node child : _children) {
+                double value = child._wins / child._visits
+                    + EXPLORATION * Math.sqrt(logVisits / child._visits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /** Return my most visited child. */
+        Node mostVisited() {
+            Node best = _children.get(0);
+            for (Node child : _children) {
+                if (child._visits > best._visits) {
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /** Record a playout through me won by WINNER. */
+        void update(Piece winner) {
+            _visits += 1;
+            if (winner == _mover) {
+                _wins += 1;
+            }
+        }
+
+        /** Store the queen moves (as packed codes with spear 0) for the
+         *  side to move on _board in _steps, and return their number. */
+        private int queenMoves() {
+            int n = 0;
+            Piece side = _board.turn();
+            for (int i = 0; i < Board.SIZE * Board.SIZE; i += 1) {
+                if (_board.get(Square.sq(i)) == side) {
+                    int nTo = collect(Square.sq(i), null, _targets);
+                    for (int k = 0; k < nTo; k += 1) {
+                        _steps[n] = Move.code(i, _targets[k].index(), 0);
+                        n += 1;
+                    }
+                }
+            }
+            return n;
+        }
+
+        /** Store the whole moves (as packed codes) that complete my queen
+         *  move on _board in _steps, and return their number. */
+        private int spearThrows() {
+            int n = collect(Square.sq(Move.to(_step)), _queenMove, _targets);
+            for (int k = 0; k < n; k += 1) {
+                _steps[k] = _step | (_targets[k].index() << 14);
+            }
+            return n;
+        }
+
+        /** My parent, or null for the root. */
+        private final Node _parent;
+        /** The step I represent (see the constructor). */
+        private final int _step;
+        /** The side that made my step. */
+        private final Piece _mover;
+        /** The starting square of my queen move if I am a queen move, and
+         *  otherwise null. */
+        private final Square _queenMove;
+        /** My children so far. */
+        private final ArrayList<Node> _children = new ArrayList<>();
+        /** Steps from me not yet made children (the first _numUntried
+         *  of them), or null if not yet computed. */
+        private int[] _untried;
+        /** The number of steps in _untried. */
+        private int _numUntried;
+        /** Number of playouts through me. */
+        private int _visits;
+        /** Number of those playouts won by _mover. */
+        private double _wins;
+    }
+
+    /** Default time limit per move, in milliseconds. */
+    private static final long DEFAULT_MOVE_MILLIS = 3000;
+    /** The most moves made in a playout before it is scored. */
+    private static final int PLAYOUT_LENGTH = 12;
+    /** The weight of exploration against exploitation in UCT. */
+    private static final double EXPLORATION = 0.7;
+    /** A node visited N times may have up to 1 + WIDENING * sqrt(N)
+     *  children. */
+    private static final double WIDENING = 2.0;
+
+    /** Time limits per move and per game, in milliseconds. */
+    private long _moveMillis, _gameMillis;
+    /** Allots my time during a game.  Allocated on first use. */
+    private TimeManager _timer;
+    /** Source of random choices.  Seeded from my controller, so that
+     *  games can be repeated. */
+    private Random _random;
+    /** The board I search on. */
+    private Board _board;
+    /** The greatest number of moves below the root reached by the tree in
+     *  the current search. */
+    private int _maxDepth;
+    /** The number of playouts in, and time taken by, the last search. */
+    private long _playouts, _millis;
+    /** Evaluator for unfinished playouts. */
+    private final Territory _territory = new Territory();
+    /** Scratch space for the queens of one side. */
+    private final Square[] _queens = new Square[4];
+    /** Scratch space for squares reachable from one square. */
+    private final Square[] _targets = new Square[Board.SIZE * 4];
+    /** Scratch space for the steps from one node. */
+    private final int[] _steps = new int[_queens.length * _targets.length];
+}
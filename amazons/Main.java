@@ -19,10 +19,20 @@ public class Main {
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --hash={0,1} --time={0,1}"
+                            + " --game-time={0,1} --depth={0,1}"
+                            + " --threads={0,1} --deterministic --ponder"
+                            + " --mcts --positions={0,1} --book={0,1}"
+                            + " --={0,2}",
+                            args);
         if (!options.ok()) {
             System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--hash=MB] [--time=MS]"
+                               + " [--game-time=MS] [--depth=N]"
+                               + " [--threads=N] [--deterministic]"
+                               + " [--ponder] [--mcts]"
+                               + " [--positions=FILE] [--book=FILE]"
+                               + " [INPUT [OUTPUT]]");
             System.exit(1);
         }
 
@@ -41,7 +51,14 @@ public class Main {
             }
         }
 
-        Controller control = getController(options);
+        Controller control;
+        try {
+            control = getController(options);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+            return;
+        }
         System.out.println("Amazons 61B, version 1.0");
 
         try {
@@ -83,6 +100,74 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        boolean timed =
+            options.contains("--time") || options.contains("--game-time");
+        long moveMillis =
+            options.contains("--time") ? intOption(options, "--time") : 0;
+        long gameMillis = options.contains("--game-time")
+            ? intOption(options, "--game-time") : 0;
+
+        Player autoPlayer;
+        if (options.contains("--mcts")) {
+            MCTSPlayer mcts = new MCTSPlayer();
+            if (timed) {
+                mcts.setTimeControl(moveMillis, gameMillis);
+            }
+            autoPlayer = mcts;
+        } else {
+            AI ai = new AI();
+            if (options.contains("--hash")) {
+                ai.setHashSize(intOption(options, "--hash"));
+            }
+            if (options.contains("--threads")) {
+                ai.setThreads(intOption(options, "--threads"));
+            }
+            ai.setDeterministic(options.contains("--deterministic"));
+            ai.setPonder(options.contains("--ponder"));
+            if (options.contains("--depth")) {
+                ai.setDepth(intOption(options, "--depth"));
+            }
+            if (timed) {
+                if (moveMillis == 0 && gameMillis == 0
+                    && !options.contains("--depth")) {
+                    throw error("a search with no time limit needs --depth");
+                }
+                ai.setTimeControl(moveMillis, gameMillis);
+            }
+            if (options.contains("--positions")) {
+                try {
+                    ai.setPositionBase(
+                        new PositionBase(options.getFirst("--positions"), 0,
+                                         false));
+                } catch (IOException excp) {
+                    throw error("Could not open position base");
+                }
+            }
+            if (options.contains("--book")) {
+                try {
+                    ai.setOpeningBook(
+                        new OpeningBook(options.getFirst("--book")));
+                } catch (IOException excp) {
+                    throw error("Could not open opening book");
+                }
+            }
+            autoPlayer = ai;
+        }
+
+        return new Controller(view, log, reporter, manualPlayer, autoPlayer);
+    }
+
+    /** Return the value of option NAME in OPTIONS, which must be a
+     *  nonnegative integer. */
+    private static int intOption(CommandArgs options, String name) {
+        try {
+            int result = Integer.parseInt(options.getFirst(name));
+            if (result < 0) {
+                throw error("%s must not be negative", name);
+            }
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s", name);
+        }
     }
 }
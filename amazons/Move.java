@@ -1,94 +1,233 @@
 package amazons;
 
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-
 import static amazons.Square.sq;
-import static amazons.Square.SQ;
 
 /** A move in the game of Amazons. As for Squares, Moves are immutable
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
  *  As for Squares, you can freely use == to compare Moves.
+ *
+ *  Internally, and in the move generator and searches, a move is a packed
+ *  code (see code): an int that can be made and taken apart (see from,
+ *  to, and spear) without creating a Move.  Move objects are for the
+ *  boundaries of the program (parsing, printing, and the Player and
+ *  Board interfaces) and are created only when first asked for.
  *  @author P. N. Hilfinger
  */
 final class Move {
 
-    /** The syntax for a move, using either the forms FROM-TO(SPEAR) or
-     *  FROM TO SPEAR.  Either groups 1-3 or 4-6 in a match from this pattern
-     *  contain FROM, TO, and SPEAR (the other 3 groups are null in each
-     *  case. */
-    static final Pattern MOVE_PATTERN =
-        Pattern.compile(String.format("%s-%s\\(%s\\)|%s\\s+%s\\s+%s",
-                                      SQ, SQ, SQ, SQ, SQ, SQ));
-
     /** Return the square moved from. */
     Square from() {
-        return _from;
+        return sq(from(_code));
     }
 
     /** Return the square moved to. */
     Square to() {
-        return _to;
+        return sq(to(_code));
     }
 
     /** Return the destination of the spear. */
     Square spear() {
-        return _spear;
+        return sq(spear(_code));
     }
 
-    /** Return the unique Move FROM-TO(SPEAR). */
+    /** Return the unique Move FROM-TO(SPEAR).  May be called from any
+     *  thread. */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
+        return mv(code(from.index(), to.index(), spear.index()));
+    }
+
+    /** Return the packed code for the move whose from, to, and spear
+     *  Squares have indices FROM, TO, and SPEAR.  Codes are nonnegative
+     *  ints of 21 bits, seven for each index. */
+    static int code(int from, int to, int spear) {
+        return from | (to << 7) | (spear << 14);
+    }
+
+    /** Return the index of the square moved from in the move whose
+     *  packed code is CODE. */
+    static int from(int code) {
+        return code & INDEX_MASK;
+    }
+
+    /** Return the index of the square moved to in the move whose packed
+     *  code is CODE. */
+    static int to(int code) {
+        return (code >>> 7) & INDEX_MASK;
+    }
+
+    /** Return the index of the spear's square in the move whose packed
+     *  code is CODE. */
+    static int spear(int code) {
+        return code >>> 14;
+    }
+
+    /** Return the printed form of the move whose packed code is CODE. */
+    static String toString(int code) {
+        return sq(from(code)) + "-" + sq(to(code)) + "(" + sq(spear(code))
+            + ")";
+    }
+
+    /** Return my packed code (see code(int, int, int)). */
+    int code() {
+        return _code;
+    }
+
+    /** Return the unique Move whose packed code (see code) is CODE.  May
+     *  be called from any thread.  The Moves from each pair of squares
+     *  are kept in a row of MOVES allocated when the first of them is
+     *  created. */
+    static Move mv(int code) {
+        int pair = code & PAIR_MASK;
+        Move[] row = MOVES[pair];
+        Move result = row == null ? null : row[spear(code)];
+        if (result == null) {
+            synchronized (MOVES) {
+                row = MOVES[pair];
+                if (row == null) {
+                    row = MOVES[pair] = new Move[Board.SIZE * Board.SIZE];
+                }
+                result = row[spear(code)];
+                if (result == null) {
+                    result = row[spear(code)] = new Move(code);
+                }
+            }
         }
-        return MOVES[from.index()][to.index()][spear.index()];
+        return result;
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
-     *  valid syntax in which the piece move and spear throw are proper
-     *  queen moves, and null otherwise. */
+     *  valid syntax (see parse) in which the piece move and spear throw
+     *  are proper queen moves, and null otherwise.  May be called from
+     *  any thread. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            int k = _moveMatcher.group(1) != null ? 1 : 4;
-            Square from = sq(_moveMatcher.group(k)),
-                to = sq(_moveMatcher.group(k + 1)),
-                spear = sq(_moveMatcher.group(k + 2));
-            if (from.isQueenMove(to) && to.isQueenMove(spear)) {
-                return mv(from, to, spear);
-            }
+        int code = parse(str, 0, str.length());
+        if (code < 0 || !isQueenMoves(code)) {
+            return null;
         }
-        return null;
+        return mv(code);
     }
 
     /** Return true iff STR has the right format for a Move, ignoring whether
      *  its piece-move and spear-throw are valid queen moves. */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return parse(str, 0, str.length()) >= 0;
+    }
+
+    /** Return the packed code (see code) of the move denoted by the
+     *  characters START to END-1 of TEXT, in either of the forms
+     *  FROM-TO(SPEAR) or FROM TO SPEAR (the squares separated by
+     *  whitespace), or -1 if they do not denote a move.  Column letters
+     *  may be in either case.  Does not check that the piece move and
+     *  spear throw are queen moves (see isQueenMoves).  Creates no
+     *  objects, and so may be called from any thread. */
+    static int parse(CharSequence text, int start, int end) {
+        int from = square(text, start, end);
+        if (from < 0) {
+            return -1;
+        }
+        int k = start + width(from);
+        int to, spear;
+        if (k < end && text.charAt(k) == '-') {
+            to = square(text, k + 1, end);
+            k += 1 + width(to);
+            if (to < 0 || k >= end || text.charAt(k) != '(') {
+                return -1;
+            }
+            spear = square(text, k + 1, end);
+            k += 1 + width(spear);
+            if (spear < 0 || k >= end || text.charAt(k) != ')') {
+                return -1;
+            }
+            k += 1;
+        } else {
+            int k0 = k;
+            k = skipWhitespace(text, k, end);
+            to = k == k0 ? -1 : square(text, k, end);
+            if (to < 0) {
+                return -1;
+            }
+            k0 = k + width(to);
+            k = skipWhitespace(text, k0, end);
+            spear = k == k0 ? -1 : square(text, k, end);
+            if (spear < 0) {
+                return -1;
+            }
+            k += width(spear);
+        }
+        return k == end ? code(from, to, spear) : -1;
+    }
+
+    /** Return true iff the piece move and the spear throw of the move
+     *  whose packed code is CODE are queen moves. */
+    static boolean isQueenMoves(int code) {
+        Square to = sq(to(code));
+        return sq(from(code)).isQueenMove(to)
+            && to.isQueenMove(sq(spear(code)));
+    }
+
+    /** Return the index of the square whose name (a column letter in
+     *  either case and a row number) starts at TEXT[K] and ends at or
+     *  before TEXT[END-1], or -1 if there is no such name there.  The
+     *  name is width(index) characters long. */
+    private static int square(CharSequence text, int k, int end) {
+        if (k + 1 >= end) {
+            return -1;
+        }
+        int col = Character.toLowerCase(text.charAt(k)) - 'a',
+            row = text.charAt(k + 1) - '1';
+        if (col < 0 || col >= Board.SIZE || row < 0 || row > 8) {
+            return -1;
+        }
+        if (row == 0 && k + 2 < end && text.charAt(k + 2) == '0') {
+            row = 9;
+        }
+        return row * Board.SIZE + col;
+    }
+
+    /** Return the length of the name of the square whose index is
+     *  INDEX (nonnegative). */
+    private static int width(int index) {
+        return index >= (Board.SIZE - 1) * Board.SIZE ? 3 : 2;
+    }
+
+    /** Return the position of the first non-whitespace character in
+     *  TEXT at or after K, or END if there is none before END. */
+    static int skipWhitespace(CharSequence text, int k, int end) {
+        while (k < end && Character.isWhitespace(text.charAt(k))) {
+            k += 1;
+        }
+        return k;
     }
 
     @Override
     public String toString() {
-        return _str;
+        String str = _str;
+        if (str == null) {
+            str = _str = toString(_code);
+        }
+        return str;
     }
 
-    /** Construct the Move FROM-TO(SPEAR). */
-    private Move(Square from, Square to, Square spear) {
-        _from = from; _to = to; _spear = spear;
-        _str = String.format("%s-%s(%s)", from, to, spear);
+    /** Construct the Move whose packed code is CODE. */
+    private Move(int code) {
+        _code = code;
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** Mask for a square index in a packed code. */
+    private static final int INDEX_MASK = 0x7f;
+    /** Mask for the from and to squares in a packed code. */
+    private static final int PAIR_MASK = (1 << 14) - 1;
+
+    /** The cache of all Moves created: MOVES[p][s] is the Move whose
+     *  from and to squares are packed as for code in P, and whose spear
+     *  is on the square with index S.  Rows are allocated on first use. */
+    private static final Move[][] MOVES = new Move[PAIR_MASK + 1][];
 
-    /** The components of a Move. */
-    private final Square _from, _to, _spear;
-    /** The printed form of a Move. */
+    /** My packed code. */
+    private final int _code;
+    /** My printed form, or null if not yet needed.  (Racing threads may
+     *  each compute it, harmlessly.) */
     private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
 
@@ -0,0 +1,283 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ucb.util.CommandArgs;
+
+/** A book of opening moves, memory-mapped from a file built offline from
+ *  game archives (see main).  Positions are looked up by canonical key:
+ *  the least of the Zobrist keys of the position under the board's
+ *  symmetries (see Square.transform), so that a book move learned in one
+ *  position is also found in its reflections and rotations.  Each book
+ *  move has a weight, and moves are chosen at random in proportion to
+ *  their weights.
+ *
+ *  The file is a header (the 4-byte MAGIC, the 4-byte VERSION, the 4-byte
+ *  number of entries, and 4 unused bytes), followed by the entries, each
+ *  a canonical key (8 bytes), a move in the canonical orientation (a
+ *  packed code, as for Move.code; 4 bytes), and a weight (4 bytes),
+ *  sorted by key and then by decreasing weight.  All numbers are
+ *  big-endian.
+ *  @author Ani Gottiparthy
+ */
+final class OpeningBook {
+
+    /** The book in the file named NAME. */
+    OpeningBook(String name) throws IOException {
+        try (FileChannel file =
+             FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+            if (file.size() < HEADER_SIZE || file.size() > Integer.MAX_VALUE) {
+                throw Utils.error("%s is not an opening book", name);
+            }
+            _entries = file.map(FileChannel.MapMode.READ_ONLY, 0,
+                                file.size());
+        }
+        _size = _entries.getInt(8);
+        if (_entries.getInt(0) != MAGIC || _entries.getInt(4) != VERSION
+            || _entries.capacity() != HEADER_SIZE + _size * ENTRY_SIZE) {
+            throw Utils.error("%s is not an opening book", name);
+        }
+    }
+
+    /** Return the number of moves in the book. */
+    int size() {
+        return _size;
+    }
+
+    /** Return a book move from BOARD (a packed code, as for Move.code),
+     *  or 0 if there is none.  The move is chosen at random from RANDOM
+     *  in proportion to the moves' weights, or if RANDOM is null, is the
+     *  one with the greatest weight. */
+    int move(Board board, Random random) {
+        int symmetry = canonicalSymmetry(board);
+        long key = board.key(symmetry);
+        int first = find(key);
+        int total = 0, last;
+        for (last = first; last < _size && key(last) == key; last += 1) {
+            total += weight(last);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        int k = first;
+        if (random != null) {
+            int pick = random.nextInt(total);
+            while (pick >= weight(k)) {
+                pick -= weight(k);
+                k += 1;
+            }
+        }
+        return transform(Square.inverse(symmetry), move(k));
+    }
+
+    /** Return the number of book moves from BOARD, storing them in MOVES
+     *  (as packed codes) and their weights in WEIGHTS, by decreasing
+     *  weight.  MOVES and WEIGHTS must be big enough. */
+    int moves(Board board, int[] moves, int[] weights) {
+        int symmetry = canonicalSymmetry(board);
+        long key = board.key(symmetry);
+        int n;
+        int k = find(key);
+        for (n = 0; k < _size && key(k) == key; n += 1, k += 1) {
+            moves[n] = transform(Square.inverse(symmetry), move(k));
+            weights[n] = weight(k);
+        }
+        return n;
+    }
+
+    /** Return the first symmetry (see Square.transform) under which BOARD
+     *  has the least key: its canonical key. */
+    static int canonicalSymmetry(Board board) {
+        int best = 0;
+        long bestKey = board.key();
+        for (int s = 1; s < Square.SYMMETRIES; s += 1) {
+            long key = board.key(s);
+            if (key < bestKey) {
+                best = s;
+                bestKey = key;
+            }
+        }
+        return best;
+    }
+
+    /** Return MOVE, a packed code, transformed by symmetry SYMMETRY. */
+    static int transform(int symmetry, int move) {
+        return Move.code(Square.transform(symmetry, Move.from(move)),
+                         Square.transform(symmetry, Move.to(move)),
+                         Square.transform(symmetry, Move.spear(move)));
+    }
+
+    /** Return the index of the first entry whose key is at least KEY
+     *  (_size if none). */
+    private int find(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the key of entry K. */
+    private long key(int k) {
+        return _entries.getLong(HEADER_SIZE + k * ENTRY_SIZE);
+    }
+
+    /** Return the move of entry K. */
+    private int move(int k) {
+        return _entries.getInt(HEADER_SIZE + k * ENTRY_SIZE + 8);
+    }
+
+    /** Return the weight of entry K. */
+    private int weight(int k) {
+        return _entries.getInt(HEADER_SIZE + k * ENTRY_SIZE + 12);
+    }
+
+    /** Build an opening book from the game archives named by ARGS, as
+     *  described by the options in ARGS:  --book=FILE names the book;
+     *  --plies=N (default 12) gives the number of moves of each game to
+     *  use; and --games=N (default 2) gives the fewest games a position
+     *  must occur in to be in the book. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--book= --plies={0,1} --games={0,1}"
+                            + " --={1,}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.OpeningBook --book=FILE"
+                               + " [--plies=N] [--games=N] ARCHIVE...");
+            System.exit(1);
+        }
+        try {
+            int plies = options.contains("--plies")
+                ? Integer.parseInt(options.getFirst("--plies")) : PLIES;
+            int minGames = options.contains("--games")
+                ? Integer.parseInt(options.getFirst("--games")) : MIN_GAMES;
+            Map<Long, Map<Integer, int[]>> stats = new HashMap<>();
+            for (String name : options.get("--")) {
+                try (ArchiveReader archive = new ArchiveReader(name)) {
+                    count(archive, plies, stats);
+                }
+            }
+            int size = write(options.getFirst("--book"), stats, minGames);
+            System.out.printf("Wrote %d book moves from %d positions.%n",
+                              size, stats.size());
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Add to STATS the moves of the first PLIES moves of each finished
+     *  game in ARCHIVE.  STATS maps each canonical key to a map from the
+     *  moves made there (in canonical orientation) to the numbers of
+     *  games in which they were made and of those won by the side that
+     *  made them. */
+    static void count(ArchiveReader archive, int plies,
+                      Map<Long, Map<Integer, int[]>> stats) {
+        int[] moves = new int[GameRecord.MAX_MOVES];
+        for (int k = 0; k < archive.size(); k += 1) {
+            Piece winner = archive.winner(k);
+            if (winner == null) {
+                continue;
+            }
+            int n = Math.min(plies, archive.moves(k, moves));
+            Board board = new Board();
+            for (int i = 0; i < n; i += 1) {
+                int symmetry = canonicalSymmetry(board);
+                int[] counts = stats
+                    .computeIfAbsent(board.key(symmetry),
+                                     key -> new HashMap<>())
+                    .computeIfAbsent(transform(symmetry, moves[i]),
+                                     move -> new int[2]);
+                counts[0] += 1;
+                if (board.turn() == winner) {
+                    counts[1] += 1;
+                }
+                board.makeMove(moves[i]);
+            }
+        }
+    }
+
+    /** Write a book to the file named NAME of the moves in STATS (as for
+     *  count) from positions occurring in at least MINGAMES games, each
+     *  weighted by the number of games in which it was made and won.
+     *  Return the number of moves written. */
+    static int write(String name, Map<Long, Map<Integer, int[]>> stats,
+                     int minGames) throws IOException {
+        List<long[]> entries = new ArrayList<>();
+        for (Map.Entry<Long, Map<Integer, int[]>> position
+                 : stats.entrySet()) {
+            int games = 0;
+            for (int[] counts : position.getValue().values()) {
+                games += counts[0];
+            }
+            if (games < minGames) {
+                continue;
+            }
+            for (Map.Entry<Integer, int[]> move
+                     : position.getValue().entrySet()) {
+                if (move.getValue()[1] > 0) {
+                    entries.add(new long[] { position.getKey(),
+                                             move.getKey(),
+                                             move.getValue()[1] });
+                }
+            }
+        }
+        entries.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+                     : a[2] != b[2] ? Long.compare(b[2], a[2])
+                     : Long.compare(a[1], b[1]));
+        try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(name)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            out.writeInt(0);
+            for (long[] entry : entries) {
+                out.writeLong(entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeInt((int) entry[2]);
+            }
+        }
+        return entries.size();
+    }
+
+    /** Identifies an opening book. */
+    static final int MAGIC = 0x414d5a42;
+    /** The version of the format. */
+    static final int VERSION = 1;
+    /** Sizes of the header and of an entry, in bytes. */
+    static final int HEADER_SIZE = 16, ENTRY_SIZE = 16;
+
+    /** Default number of moves of each game used. */
+    private static final int PLIES = 12;
+    /** Default number of games in which a position must occur. */
+    private static final int MIN_GAMES = 2;
+
+    /** The mapped file. */
+    private final MappedByteBuffer _entries;
+    /** The number of entries. */
+    private final int _size;
+}
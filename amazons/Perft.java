@@ -0,0 +1,230 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+
+import static amazons.Utils.error;
+
+import ucb.util.CommandArgs;
+
+/** Counts the positions reachable in a given number of moves (perft), to
+ *  check and time the move generator.  The count of positions DEPTH moves
+ *  from the start position has a known value for each DEPTH, so any
+ *  change to Board.legalMoves, makeMove, or undo that breaks them shows
+ *  up as a wrong count, and the time taken measures their speed.
+ *
+ *  The moves from the position counted are divided among several
+ *  threads, each with its own Board.  Counts of subtrees may be cached in
+ *  a table indexed by Zobrist key and depth, shared by all the threads
+ *  without locking in the same way as TranspositionTable.
+ *  @author Ani Gottiparthy
+ */
+final class Perft {
+
+    /** A Perft that counts with THREADS threads (at least one), caching
+     *  the counts of subtrees in a table of CACHEENTRIES entries (none if
+     *  0). */
+    Perft(int threads, int cacheEntries) {
+        _threads = Math.max(1, threads);
+        if (cacheEntries > 0) {
+            int size = Integer.highestOneBit(cacheEntries);
+            if (size < cacheEntries) {
+                size <<= 1;
+            }
+            _cache = new long[2 * size];
+        } else {
+            _cache = null;
+        }
+    }
+
+    /** Return the number of move sequences of length DEPTH from
+     *  BOARD. */
+    long count(Board board, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        long[] counts = new long[Board.MAX_MOVES];
+        int n = divide(board, depth, moves, counts);
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            total += counts[i];
+        }
+        return total;
+    }
+
+    /** Store the legal moves from BOARD in MOVES (as packed codes, see
+     *  Move.code) and the number of move sequences of length DEPTH that
+     *  start with each in the corresponding element of COUNTS.  DEPTH
+     *  must be positive.  Return the number of moves.  BOARD is not
+     *  modified. */
+    int divide(Board board, int depth, int[] moves, long[] counts) {
+        int n = board.legalMoves(board.turn(), moves);
+        Thread[] workers = new Thread[_threads];
+        for (int k = 0; k < _threads; k += 1) {
+            int first = k;
+            Board copy = new Board();
+            copy.copyPosition(board);
+            workers[k] = new Thread(() -> {
+                int[][] buffers = new int[depth][Board.MAX_MOVES];
+                for (int i = first; i < n; i += _threads) {
+                    copy.makeMove(moves[i]);
+                    counts[i] = perft(copy, depth - 1, buffers);
+                    copy.undo();
+                }
+            });
+            workers[k].start();
+        }
+        for (Thread worker : workers) {
+            while (true) {
+                try {
+                    worker.join();
+                    break;
+                } catch (InterruptedException excp) {
+                    continue;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Return the number of move sequences of length DEPTH from BOARD,
+     *  using BUFFERS[d] as the move buffer for depth d. */
+    private long perft(Board board, int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        }
+        int[] moves = buffers[depth];
+        int n = board.legalMoves(board.turn(), moves);
+        if (depth == 1) {
+            return n;
+        }
+        long key = board.key() ^ depth * DEPTH_KEY;
+        int index = 0;
+        if (_cache != null) {
+            index = (int) (key ^ (key >>> 32)) & (_cache.length - 2);
+            long count = _cache[index + 1];
+            if ((_cache[index] ^ count) == key) {
+                return count;
+            }
+        }
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            board.makeMove(moves[i]);
+            total += perft(board, depth - 1, buffers);
+            board.undo();
+        }
+        if (_cache != null) {
+            _cache[index] = key ^ total;
+            _cache[index + 1] = total;
+        }
+        return total;
+    }
+
+    /** Count the positions reachable from the start position, or from
+     *  the position after the moves in the file named by ARGS, and report
+     *  the count and the time taken.  Options in ARGS: --depth=N (default
+     *  2), --divide to report the count for each first move, --hash=MB
+     *  for a cache of that size, and --threads=N. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--depth={0,1} --divide --hash={0,1}"
+                            + " --threads={0,1} --={0,1}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.Perft [--depth=N]"
+                               + " [--divide] [--hash=MB] [--threads=N]"
+                               + " [MOVES]");
+            System.exit(1);
+        }
+        try {
+            int depth = intOption(options, "--depth", 2);
+            int threads = intOption(options, "--threads",
+                                    Runtime.getRuntime()
+                                    .availableProcessors());
+            int entries = (int) Math.min(1 << 30,
+                                         ((long) intOption(options, "--hash",
+                                                           0) << 20) / 16);
+            Board board = new Board();
+            List<String> files = options.get("--");
+            if (!files.isEmpty()) {
+                readMoves(board, files.get(0));
+            }
+            Perft perft = new Perft(threads, entries);
+            long start = System.nanoTime();
+            long total;
+            if (options.contains("--divide") && depth > 0) {
+                int[] moves = new int[Board.MAX_MOVES];
+                long[] counts = new long[Board.MAX_MOVES];
+                int n = perft.divide(board, depth, moves, counts);
+                total = 0;
+                for (int i = 0; i < n; i += 1) {
+                    System.out.printf("%s %d%n", Move.mv(moves[i]),
+                                      counts[i]);
+                    total += counts[i];
+                }
+            } else {
+                total = perft.count(board, depth);
+            }
+            long nanos = Math.max(1, System.nanoTime() - start);
+            System.out.printf("perft(%d) = %d in %d ms (%d nodes/s)%n",
+                              depth, total, nanos / 1_000_000,
+                              (long) (total * 1e9 / nanos));
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Make the moves in the file named NAME on BOARD, one to a line.
+     *  Blank lines and comments (from # to the end of a line) are
+     *  ignored. */
+    private static void readMoves(Board board, String name) {
+        try (BufferedReader in = new BufferedReader(new FileReader(name))) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                line = line.replaceFirst("#.*", "").trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Move move = Move.mv(line);
+                if (move == null || !board.isLegal(move)) {
+                    throw error("bad move: %s", line);
+                }
+                board.makeMove(move);
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /** Return the value of option NAME in OPTIONS, which must be a
+     *  nonnegative integer, or DEFAULTVALUE if it is absent. */
+    private static int intOption(CommandArgs options, String name,
+                                 int defaultValue) {
+        if (!options.contains(name)) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(options.getFirst(name));
+            if (result < 0) {
+                throw error("%s must not be negative", name);
+            }
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s", name);
+        }
+    }
+
+    /** Multiplied by the depth and XORed into Zobrist keys to tell apart
+     *  the counts of one position to different depths. */
+    private static final long DEPTH_KEY = 0x9e3779b97f4a7c15L;
+
+    /** Number of threads to count with. */
+    private final int _threads;
+
+    /** The cache of subtree counts, two longs per entry: the key XORed
+     *  with the count, and the count.  Null if there is no cache. */
+    private final long[] _cache;
+}
@@ -36,6 +36,24 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Return a move for me from position BOARD, which must be my move
+     *  and have one, without consulting a controller, or null if I cannot
+     *  choose moves by myself (the default).  Does not modify BOARD. */
+    Move findMove(Board board) {
+        return null;
+    }
+
+    /** Called by my controller after MOVE has been made on its board,
+     *  whichever side made it.  By default, does nothing. */
+    void moveMade(Move move) {
+    }
+
+    /** Called by my controller when it has finished with me, because my
+     *  game has ended or I have been replaced.  Stops any work I am doing
+     *  in the background.  By default, does nothing. */
+    void dispose() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
@@ -0,0 +1,370 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static amazons.Piece.*;
+
+import ucb.util.CommandArgs;
+
+/** A database of positions on disk, keyed by Zobrist key (see
+ *  Board.key()), that records for each position how often it occurred in
+ *  the games imported and how often white won them, and what the AI found
+ *  when it analysed the position: its value, its best move, and the
+ *  depth of the search.  The database is an open-addressed hash table in
+ *  a memory-mapped file, so an AI can consult it during a search (see
+ *  AI.setPositionBase) without loading it, and it can be shared between
+ *  sessions and machines.  It is built by importing game archives (see
+ *  main), which only one thread may do at a time; any number of threads
+ *  may read a database opened read-only.
+ *
+ *  The file is a header (the 4-byte MAGIC, the 4-byte VERSION, the 8-byte
+ *  number of entries, a power of two, and the 8-byte number in use),
+ *  followed by the entries, ENTRY_SIZE bytes each: the key (8 bytes; 0 in
+ *  an empty entry), the number of visits (4), the number of those won by
+ *  white (4), the value (4), and the best move (a packed code, as for
+ *  Move.code) plus the depth shifted left DEPTH_SHIFT bits (4).  Entries
+ *  are mapped in segments of at most SEGMENT_ENTRIES, so the file may
+ *  exceed 2GB.
+ *  @author Ani Gottiparthy
+ */
+final class PositionBase implements AutoCloseable {
+
+    /** A database in the file named NAME, opened for reading and
+     *  writing iff WRITABLE.  If the file does not exist and WRITABLE,
+     *  it is created empty, with room for ENTRIES entries (rounded up to
+     *  a power of two); otherwise ENTRIES is ignored. */
+    PositionBase(String name, long entries, boolean writable)
+        throws IOException {
+        _writable = writable;
+        boolean exists = new File(name).exists();
+        if (!exists && !writable) {
+            throw Utils.error("no position base %s", name);
+        }
+        try (RandomAccessFile file =
+             new RandomAccessFile(name, writable ? "rw" : "r")) {
+            FileChannel channel = file.getChannel();
+            FileChannel.MapMode mode = writable
+                ? FileChannel.MapMode.READ_WRITE
+                : FileChannel.MapMode.READ_ONLY;
+            if (!exists) {
+                long size = Math.max(2, Long.highestOneBit(entries));
+                entries = size < entries ? 2 * size : size;
+                file.setLength(HEADER_SIZE + entries * ENTRY_SIZE);
+            } else if (file.length() < HEADER_SIZE) {
+                throw Utils.error("%s is not a position base", name);
+            }
+            _header = channel.map(mode, 0, HEADER_SIZE);
+            if (!exists) {
+                _header.putInt(0, MAGIC);
+                _header.putInt(4, VERSION);
+                _header.putLong(8, entries);
+            } else if (_header.getInt(0) != MAGIC
+                       || _header.getInt(4) != VERSION) {
+                throw Utils.error("%s is not a position base", name);
+            }
+            _entries = _header.getLong(8);
+            _used = _header.getLong(16);
+            if (Long.bitCount(_entries) != 1
+                || file.length() != HEADER_SIZE + _entries * ENTRY_SIZE) {
+                throw Utils.error("%s is damaged", name);
+            }
+            _mask = _entries - 1;
+            _segmentBits = Long.numberOfTrailingZeros(
+                Math.min(_entries, SEGMENT_ENTRIES));
+            _segments =
+                new MappedByteBuffer[(int) (_entries >>> _segmentBits)];
+            long segmentBytes = (long) ENTRY_SIZE << _segmentBits;
+            for (int i = 0; i < _segments.length; i += 1) {
+                _segments[i] = channel.map(mode,
+                                           HEADER_SIZE + i * segmentBytes,
+                                           segmentBytes);
+            }
+        }
+    }
+
+    /** Return the number of entries. */
+    long capacity() {
+        return _entries;
+    }
+
+    /** Return the number of positions recorded. */
+    long size() {
+        return _used;
+    }
+
+    /** Return what the AI found for the position whose key is KEY, in
+     *  the form returned by TranspositionTable.probe (as an EXACT
+     *  result), or 0 if it has not been analysed. */
+    long probe(long key) {
+        long slot = find(key);
+        if (slot < 0) {
+            return 0;
+        }
+        int data = getInt(slot, 20);
+        if (data >>> DEPTH_SHIFT == 0) {
+            return 0;
+        }
+        return TranspositionTable.data(data >>> DEPTH_SHIFT,
+                                       TranspositionTable.EXACT,
+                                       getInt(slot, 16),
+                                       data & MOVE_MASK);
+    }
+
+    /** Return the depth of the analysis of the position whose key is
+     *  KEY, or 0 if it has not been analysed. */
+    int depth(long key) {
+        long slot = find(key);
+        return slot < 0 ? 0 : getInt(slot, 20) >>> DEPTH_SHIFT;
+    }
+
+    /** Return the number of times the position whose key is KEY was
+     *  reached in the games imported. */
+    int visits(long key) {
+        long slot = find(key);
+        return slot < 0 ? 0 : getInt(slot, 8);
+    }
+
+    /** Return the number of the games that reached the position whose
+     *  key is KEY that were won by PLAYER. */
+    int wins(long key, Piece player) {
+        long slot = find(key);
+        if (slot < 0) {
+            return 0;
+        }
+        int whiteWins = getInt(slot, 12);
+        return player == WHITE ? whiteWins : getInt(slot, 8) - whiteWins;
+    }
+
+    /** Record that the position whose key is KEY was reached in a game
+     *  that WINNER won, and return the number of times it has now been
+     *  reached. */
+    int addVisit(long key, Piece winner) {
+        long slot = insert(key);
+        int visits = getInt(slot, 8) + 1;
+        putInt(slot, 8, visits);
+        if (winner == WHITE) {
+            putInt(slot, 12, getInt(slot, 12) + 1);
+        }
+        return visits;
+    }
+
+    /** Record that a search of DEPTH levels (1 or more) from the position
+     *  whose key is KEY found VALUE (positive favoring white), and MOVE (a
+     *  packed code) as its best move, unless a deeper result is already
+     *  recorded. */
+    void store(long key, int depth, int value, int move) {
+        long slot = insert(key);
+        depth = Math.min(Math.max(depth, 1), MAX_DEPTH);
+        if (getInt(slot, 20) >>> DEPTH_SHIFT <= depth) {
+            putInt(slot, 16, value);
+            putInt(slot, 20, move | depth << DEPTH_SHIFT);
+        }
+    }
+
+    /** Write any changes to the file, and release it. */
+    @Override
+    public void close() {
+        if (_writable && _segments != null) {
+            _header.force();
+            for (MappedByteBuffer segment : _segments) {
+                segment.force();
+            }
+        }
+        _segments = null;
+    }
+
+    /** Return the entry holding KEY, or -1 if there is none.  (Key 0
+     *  marks empty entries, so it is stored as 1.) */
+    private long find(long key) {
+        key = key == 0 ? 1 : key;
+        for (long slot = key & _mask; ; slot = (slot + 1) & _mask) {
+            long k = getLong(slot, 0);
+            if (k == key) {
+                return slot;
+            } else if (k == 0) {
+                return -1;
+            }
+        }
+    }
+
+    /** Return the entry holding KEY, claiming an empty one for it if
+     *  there is none.  The count of entries in use goes to the file
+     *  before the key does, so that if we are killed during an import,
+     *  the count there is never too low for the load limit to hold. */
+    private long insert(long key) {
+        if (!_writable) {
+            throw Utils.error("position base is read-only");
+        }
+        key = key == 0 ? 1 : key;
+        for (long slot = key & _mask; ; slot = (slot + 1) & _mask) {
+            long k = getLong(slot, 0);
+            if (k == key) {
+                return slot;
+            } else if (k == 0) {
+                if (_used >= _entries - _entries / MAX_LOAD_INVERSE) {
+                    throw Utils.error("position base is full");
+                }
+                _used += 1;
+                _header.putLong(16, _used);
+                putLong(slot, 0, key);
+                return slot;
+            }
+        }
+    }
+
+    /** Return the int at byte OFFSET of entry SLOT. */
+    private int getInt(long slot, int offset) {
+        return _segments[(int) (slot >>> _segmentBits)]
+            .getInt(position(slot, offset));
+    }
+
+    /** Return the long at byte OFFSET of entry SLOT. */
+    private long getLong(long slot, int offset) {
+        return _segments[(int) (slot >>> _segmentBits)]
+            .getLong(position(slot, offset));
+    }
+
+    /** Store VALUE at byte OFFSET of entry SLOT. */
+    private void putInt(long slot, int offset, int value) {
+        _segments[(int) (slot >>> _segmentBits)]
+            .putInt(position(slot, offset), value);
+    }
+
+    /** Store VALUE at byte OFFSET of entry SLOT. */
+    private void putLong(long slot, int offset, long value) {
+        _segments[(int) (slot >>> _segmentBits)]
+            .putLong(position(slot, offset), value);
+    }
+
+    /** Return the position in its segment of byte OFFSET of entry SLOT. */
+    private int position(long slot, int offset) {
+        return (int) (slot & ((1L << _segmentBits) - 1)) * ENTRY_SIZE
+            + offset;
+    }
+
+    /** Import the game archives named by ARGS into a position base, as
+     *  described by the options in ARGS:  --base=FILE names the base,
+     *  which is created if need be; --entries=N (default 2^20) gives the
+     *  number of entries in a new base; and --depth=D (default 0, for no
+     *  analysis) asks that each position reached at least --visits=V
+     *  (default 1) times be analysed by an AI to D levels. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--base= --entries={0,1} --depth={0,1}"
+                            + " --visits={0,1} --={1,}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.PositionBase --base=FILE"
+                               + " [--entries=N] [--depth=D] [--visits=V]"
+                               + " ARCHIVE...");
+            System.exit(1);
+        }
+        try {
+            long entries = options.contains("--entries")
+                ? Long.parseLong(options.getFirst("--entries"))
+                : DEFAULT_ENTRIES;
+            int depth = options.contains("--depth")
+                ? Integer.parseInt(options.getFirst("--depth")) : 0;
+            int minVisits = options.contains("--visits")
+                ? Integer.parseInt(options.getFirst("--visits")) : 1;
+            try (PositionBase base =
+                 new PositionBase(options.getFirst("--base"), entries,
+                                  true)) {
+                int games = 0;
+                for (String name : options.get("--")) {
+                    try (ArchiveReader archive = new ArchiveReader(name)) {
+                        games += base.importGames(archive, depth, minVisits);
+                    }
+                }
+                System.out.printf("Imported %d games; %d positions.%n",
+                                  games, base.size());
+            }
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Record the positions of each finished game in ARCHIVE, and if
+     *  DEPTH is positive, have an AI search to DEPTH levels each position
+     *  reached at least MINVISITS times and not already analysed as
+     *  deeply.  Return the number of games imported. */
+    int importGames(ArchiveReader archive, int depth, int minVisits) {
+        AI[] analysts = null;
+        if (depth > 0) {
+            AI template = new AI().setDepth(depth);
+            analysts = new AI[] {
+                (AI) template.create(WHITE, null),
+                (AI) template.create(BLACK, null)
+            };
+        }
+        int[] moves = new int[GameRecord.MAX_MOVES];
+        int games = 0;
+        for (int k = 0; k < archive.size(); k += 1) {
+            Piece winner = archive.winner(k);
+            if (winner == null) {
+                continue;
+            }
+            int n = archive.moves(k, moves);
+            Board board = new Board();
+            for (int i = 0; i < n; i += 1) {
+                long key = board.key();
+                int visits = addVisit(key, winner);
+                if (analysts != null && visits >= minVisits
+                    && depth(key) < depth) {
+                    AI analyst = analysts[board.turn() == WHITE ? 0 : 1];
+                    Move best = analyst.findMove(board);
+                    int reached = analyst.depthReached();
+                    store(key, reached == 0 ? MAX_DEPTH : reached,
+                          analyst.value(), best.code());
+                }
+                board.makeMove(moves[i]);
+            }
+            games += 1;
+        }
+        return games;
+    }
+
+    /** Identifies a position base. */
+    static final int MAGIC = 0x414d5a50;
+    /** The version of the format. */
+    static final int VERSION = 1;
+    /** Sizes of the header and of an entry, in bytes. */
+    static final int HEADER_SIZE = 24, ENTRY_SIZE = 24;
+    /** The most entries mapped at once. */
+    static final long SEGMENT_ENTRIES = 1L << 24;
+    /** Position of the depth in an entry's last word. */
+    static final int DEPTH_SHIFT = 24;
+    /** The largest depth recorded.  Results found by a solver rather
+     *  than a search are recorded at this depth, as they hold at any. */
+    static final int MAX_DEPTH = 0xff;
+
+    /** Mask for the move in an entry's last word. */
+    private static final int MOVE_MASK = (1 << DEPTH_SHIFT) - 1;
+    /** The table is never more than 1 - 1/MAX_LOAD_INVERSE full. */
+    private static final long MAX_LOAD_INVERSE = 4;
+    /** Default number of entries in a new base. */
+    private static final long DEFAULT_ENTRIES = 1 << 20;
+
+    /** True iff I may be changed. */
+    private final boolean _writable;
+    /** The mapped header. */
+    private final MappedByteBuffer _header;
+    /** The mapped entries, or null once closed. */
+    private MappedByteBuffer[] _segments;
+    /** The number of entries, and that less one. */
+    private final long _entries, _mask;
+    /** The number of entries in use. */
+    private long _used;
+    /** Log2 of the number of entries per segment. */
+    private final int _segmentBits;
+}
@@ -0,0 +1,209 @@
+package amazons;
+
+/** A solver that proves which side wins a position, by depth-first
+ *  proof-number search (df-pn).  Each position has a proof number (phi),
+ *  the least number of positions whose values must still be found to
+ *  show that the side to move wins, and a disproof number (delta), the
+ *  least number needed to show that it loses.  The search always expands
+ *  the most promising position, so it spends no effort on how much a
+ *  side wins by, only on whether it wins.  The numbers are kept in a
+ *  transposition table indexed by Zobrist key (see Board.key()); Amazons
+ *  positions never repeat, so there are no cycles to worry about.
+ *  Positions whose queens are walled off from each other are settled at
+ *  once by the Endgame solver.
+ *
+ *  A ProofSolver must be confined to one thread at a time, but its
+ *  search can be abandoned from another thread with stop().
+ *  @author Ani Gottiparthy
+ */
+final class ProofSolver {
+
+    /** A solver whose table has room for ENTRIES positions (rounded up
+     *  to a power of two). */
+    ProofSolver(int entries) {
+        int size = Integer.highestOneBit(Math.max(1, entries));
+        if (size < entries) {
+            size <<= 1;
+        }
+        _keys = new long[size];
+        _phi = new int[size];
+        _delta = new int[size];
+        _moves = new int[size];
+    }
+
+    /** Try to find the winner of BOARD, expanding at most NODELIMIT
+     *  positions.  Return the winner, or null if the limit was reached
+     *  (or stop was called) first.  If the side to move wins, winningMove
+     *  then returns a move that wins for it.  BOARD is not modified. */
+    Piece solve(Board board, long nodeLimit) {
+        _board.copyPosition(board);
+        _nodeLimit = nodeLimit;
+        _nodes = 0;
+        try {
+            search(INFINITY, INFINITY, 0);
+        } catch (SolveAborted excp) {
+            return null;
+        }
+        int entry = probe(_board.key());
+        Piece turn = _board.turn();
+        if (_keys[entry] != _board.key()) {
+            return null;
+        } else if (_phi[entry] == 0) {
+            _winningMove = _moves[entry];
+            return turn;
+        } else {
+            _winningMove = 0;
+            return turn.opponent();
+        }
+    }
+
+    /** Return a winning move (as a packed code, see Move.code) for the
+     *  side to move in the position last solved, if that side wins, and
+     *  otherwise 0. */
+    int winningMove() {
+        return _winningMove;
+    }
+
+    /** Return the number of positions expanded by the last solve. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Abandon the current solve, if any, as soon as possible, and any
+     *  later ones at once.  May be called from any thread. */
+    void stop() {
+        _stop = true;
+    }
+
+    /** Search from _board, at PLY levels below the root, until the proof
+     *  number of _board is at least THPHI or its disproof number is at
+     *  least THDELTA, and record its numbers in the table. */
+    private void search(int thPhi, int thDelta, int ply) {
+        _nodes += 1;
+        if (_stop || _nodes > _nodeLimit) {
+            throw ABORTED;
+        }
+        long key = _board.key();
+        Piece turn = _board.turn();
+        if (_moveBuffers[ply] == null) {
+            _moveBuffers[ply] = new int[Board.MAX_MOVES];
+        }
+        int[] moves = _moveBuffers[ply];
+        int n = _board.legalMoves(turn, moves);
+        if (n == 0) {
+            store(key, INFINITY, 0, 0);
+            return;
+        }
+        if (_endgame.solve(_board, ENDGAME_NODES) && _endgame.exact()) {
+            if (_endgame.winner(turn) == turn) {
+                store(key, 0, INFINITY, _endgame.bestMove());
+            } else {
+                store(key, INFINITY, 0, 0);
+            }
+            return;
+        }
+        if (_keyBuffers[ply] == null) {
+            _keyBuffers[ply] = new long[Board.MAX_MOVES];
+        }
+        long[] keys = _keyBuffers[ply];
+        for (int i = 0; i < n; i += 1) {
+            _board.makeMove(moves[i]);
+            keys[i] = _board.key();
+            _board.undo();
+        }
+
+        while (true) {
+            int phi = INFINITY, delta = 0, best = 0, delta2 = INFINITY;
+            int bestPhi = 0;
+            for (int i = 0; i < n; i += 1) {
+                int entry = probe(keys[i]);
+                int childPhi = 1, childDelta = 1;
+                if (_keys[entry] == keys[i]) {
+                    childPhi = _phi[entry];
+                    childDelta = _delta[entry];
+                }
+                delta = (int) Math.min(INFINITY, (long) delta + childPhi);
+                if (childDelta < phi) {
+                    delta2 = phi;
+                    phi = childDelta;
+                    best = i;
+                    bestPhi = childPhi;
+                } else if (childDelta < delta2) {
+                    delta2 = childDelta;
+                }
+            }
+            if (phi >= thPhi || delta >= thDelta) {
+                store(key, phi, delta, phi == 0 ? moves[best] : 0);
+                return;
+            }
+            int childThPhi = (int) Math.min(INFINITY,
+                                            (long) thDelta - delta + bestPhi);
+            int childThDelta = (int) Math.min(thPhi,
+                                              (long) delta2 + delta2 / 4 + 1);
+            _board.makeMove(moves[best]);
+            search(childThPhi, childThDelta, ply + 1);
+            _board.undo();
+        }
+    }
+
+    /** Record proof number PHI, disproof number DELTA, and winning move
+     *  MOVE (0 if none) for the position with key KEY. */
+    private void store(long key, int phi, int delta, int move) {
+        int entry = probe(key);
+        _keys[entry] = key;
+        _phi[entry] = phi;
+        _delta[entry] = delta;
+        _moves[entry] = move;
+    }
+
+    /** Return the index of the table entry for KEY. */
+    private int probe(long key) {
+        return (int) (key ^ (key >>> 32)) & (_keys.length - 1);
+    }
+
+    /** Thrown to abandon a solve. */
+    private static class SolveAborted extends RuntimeException {
+        /** The (only) SolveAborted. */
+        SolveAborted() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** The exception thrown to abandon a solve. */
+    private static final SolveAborted ABORTED = new SolveAborted();
+
+    /** A proof or disproof number for a position that cannot be proven
+     *  (or disproven). */
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    /** Node limit for the Endgame solver at each position. */
+    private static final int ENDGAME_NODES = 1000;
+
+    /** The most moves a game can last, which bounds the depth of a
+     *  search. */
+    private static final int MAX_PLY = Board.SIZE * Board.SIZE;
+
+    /** The table: the key of the position in each entry (0 if none), and
+     *  its proof number, disproof number, and winning move (a packed code,
+     *  or 0 if not known). */
+    private final long[] _keys;
+    /** See _keys. */
+    private final int[] _phi, _delta, _moves;
+
+    /** The board being solved. */
+    private final Board _board = new Board();
+    /** Move buffers and buffers of the keys of the positions after each
+     *  move, indexed by ply. */
+    private final int[][] _moveBuffers = new int[MAX_PLY][];
+    /** See _moveBuffers. */
+    private final long[][] _keyBuffers = new long[MAX_PLY][];
+    /** Solver for separated positions. */
+    private final Endgame _endgame = new Endgame();
+    /** The node limit and number of nodes expanded in the current
+     *  solve. */
+    private long _nodeLimit, _nodes;
+    /** Set to abandon the current solve. */
+    private volatile boolean _stop;
+    /** See winningMove. */
+    private int _winningMove;
+}
@@ -16,5 +16,10 @@ interface Reporter {
     /** Display MOVE as needed. */
     void reportMove(Move move);
 
+    /** Display, as needed, that SIDE searched to DEPTH levels in MILLIS
+     *  milliseconds to find its last move, and that the kth thread of the
+     *  search visited NODES[k] nodes. */
+    void reportSearch(Piece side, int depth, long millis, long[] nodes);
+
 }
 
@@ -0,0 +1,99 @@
+package amazons;
+
+/** A sequential probability ratio test (SPRT) of whether one engine is
+ *  stronger than another, from the results of games between them.
+ *  Amazons games cannot be drawn, so each game is a Bernoulli trial: the
+ *  first engine wins with some probability P.  The test weighs the
+ *  hypothesis H0 that the first engine's Elo advantage is ELO0 against
+ *  the hypothesis H1 that it is ELO1, and stops as soon as the games so
+ *  far favor one of them by enough to keep the chances of accepting the
+ *  wrong one below ALPHA (if H0 is true) and BETA (if H1 is).
+ *  @author Ani Gottiparthy
+ */
+final class Sprt {
+
+    /** Results of the test. */
+    static final int ACCEPT_H0 = -1, CONTINUE = 0, ACCEPT_H1 = 1;
+
+    /** A test of an Elo advantage of ELO0 (H0) against one of ELO1
+     *  (H1), with error probabilities ALPHA and BETA. */
+    Sprt(double elo0, double elo1, double alpha, double beta) {
+        double p0 = score(elo0), p1 = score(elo1);
+        _winWeight = Math.log(p1 / p0);
+        _lossWeight = Math.log((1 - p1) / (1 - p0));
+        _lower = Math.log(beta / (1 - alpha));
+        _upper = Math.log((1 - beta) / alpha);
+    }
+
+    /** Record a game won by the first engine iff WON. */
+    void add(boolean won) {
+        if (won) {
+            _wins += 1;
+        } else {
+            _losses += 1;
+        }
+    }
+
+    /** Return the number of games won by the first engine. */
+    int wins() {
+        return _wins;
+    }
+
+    /** Return the number of games lost by the first engine. */
+    int losses() {
+        return _losses;
+    }
+
+    /** Return the log-likelihood ratio of H1 to H0 given the results so
+     *  far. */
+    double llr() {
+        return _wins * _winWeight + _losses * _lossWeight;
+    }
+
+    /** Return the lower and upper bounds on llr() at which the test
+     *  accepts H0 and H1, respectively. */
+    double lowerBound() {
+        return _lower;
+    }
+
+    /** See lowerBound. */
+    double upperBound() {
+        return _upper;
+    }
+
+    /** Return ACCEPT_H0, ACCEPT_H1, or CONTINUE (if more games are
+     *  needed), according to the results so far. */
+    int result() {
+        double llr = llr();
+        if (llr <= _lower) {
+            return ACCEPT_H0;
+        } else if (llr >= _upper) {
+            return ACCEPT_H1;
+        } else {
+            return CONTINUE;
+        }
+    }
+
+    /** Return the Elo advantage of the first engine estimated from the
+     *  results so far, or NaN if it has won or lost every game. */
+    double elo() {
+        int games = _wins + _losses;
+        if (_wins == 0 || _losses == 0) {
+            return Double.NaN;
+        }
+        return -400 * Math.log10((double) games / _wins - 1);
+    }
+
+    /** Return the probability that an engine with an Elo advantage of ELO
+     *  wins a game. */
+    static double score(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /** The changes in llr() for a win and for a loss. */
+    private final double _winWeight, _lossWeight;
+    /** See lowerBound and upperBound. */
+    private final double _lower, _upper;
+    /** Numbers of games won and lost by the first engine. */
+    private int _wins, _losses;
+}
@@ -41,9 +41,7 @@ final class Square {
 
     /** Return true iff THIS - TO is a valid queen move. */
     boolean isQueenMove(Square to) {
-        int rowdif = Math.abs(to.row() - row());
-        int coldif = Math.abs(to.col() - col());
-        return this != to && (rowdif == coldif || rowdif == 0 || coldif == 0);
+        return DIRECTIONS[_index][to._index] >= 0;
     }
 
     /** Definitions of direction for queenMove.  DIR[k] = (dcol, drow)
@@ -63,43 +61,31 @@ final class Square {
         if (dir < 0 || dir > 7) {
             return null;
         }
-        int rowSteps = DIR[dir][1] * steps;
-        int colSteps = DIR[dir][0] * steps;
-        if (_col + colSteps < 0 || _col + colSteps > 9
-                || _row + rowSteps < 0 || _row + rowSteps > 9) {
+        Square[] ray = RAYS[_index][dir];
+        if (steps < 1 || steps > ray.length) {
             return null;
         }
-        return sq(col() + colSteps, row() + rowSteps);
+        return ray[steps - 1];
     }
 
+    /** Return the Squares reachable from me in direction DIR (as for
+     *  queenMove) on an empty board, nearest first.  The array is shared
+     *  and must not be modified. */
+    Square[] ray(int dir) {
+        return RAYS[_index][dir];
+    }
 
+    /** Return word WORD (0 or 1) of the mask of the Squares in ray(DIR),
+     *  where Square index I is bit I % 64 of word I / 64. */
+    long rayMask(int dir, int word) {
+        return RAY_MASKS[_index][2 * dir + word];
+    }
 
     /** Return the direction (an int as defined in the documentation
-     *  for quee0nMove) of the queen move THIS-TO. */
+     *  for queenMove) of the queen move THIS-TO, or -1 if THIS-TO is not
+     *  a queen move. */
     int direction(Square to) {
-        int row = row();
-        int col = col();
-        int torow = to.row();
-        int tocol = to.col();
-        if (torow > row && tocol == col) {
-            return 0;
-        } else if (torow < row && tocol == col) {
-            return 4;
-        } else if (tocol > col && torow == row) {
-            return 2;
-        } else if (tocol < col && torow == row) {
-            return 6;
-        } else if (torow > row && tocol > col) {
-            return 1;
-        } else if (torow < row && tocol > col) {
-            return 3;
-        } else if (torow > row && tocol < col) {
-            return 7;
-        } else if (torow < row && tocol < col) {
-            return 5;
-        } else {
-            return -1;
-        }
+        return DIRECTIONS[_index][to._index];
     }
 
     @Override
@@ -165,6 +151,20 @@ final class Square {
         return SQUARE_LIST.iterator();
     }
 
+    /** Return the index of the square to which symmetry SYMMETRY of the
+     *  board (0 <= SYMMETRY < SYMMETRIES) takes the square with index
+     *  INDEX.  Symmetry S swaps rows and columns if S & 4 is nonzero, then
+     *  reverses the columns if S & 1 is, and the rows if S & 2 is.
+     *  Symmetry 0 leaves every square in place. */
+    static int transform(int symmetry, int index) {
+        return TRANSFORMS[symmetry][index];
+    }
+
+    /** Return the symmetry that undoes symmetry SYMMETRY. */
+    static int inverse(int symmetry) {
+        return INVERSES[symmetry];
+    }
+
     /** Returns an array of columns of board. */
     static char[] letters() {
         char[] letters = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j'};
@@ -189,10 +189,73 @@ final class Square {
     /** SQUARES viewed as a List. */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
 
+    /** RAYS[i][dir] is the value of ray(dir) for the Square with index i. */
+    private static final Square[][][] RAYS =
+        new Square[Board.SIZE * Board.SIZE][8][];
+
+    /** RAY_MASKS[i][2 * dir + w] is the value of rayMask(dir, w) for the
+     *  Square with index i. */
+    private static final long[][] RAY_MASKS =
+        new long[Board.SIZE * Board.SIZE][16];
+
+    /** The number of symmetries of the board (see transform). */
+    static final int SYMMETRIES = 8;
+
+    /** TRANSFORMS[s][i] is the value of transform(s, i). */
+    private static final byte[][] TRANSFORMS =
+        new byte[SYMMETRIES][Board.SIZE * Board.SIZE];
+
+    /** INVERSES[s] is the value of inverse(s). */
+    private static final int[] INVERSES = new int[SYMMETRIES];
+
+    /** DIRECTIONS[i][j] is the direction of the queen move from the Square
+     *  with index i to that with index j, or -1 if there is none. */
+    private static final byte[][] DIRECTIONS =
+        new byte[Board.SIZE * Board.SIZE][Board.SIZE * Board.SIZE];
+
     static {
         for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        for (Square from : SQUARES) {
+            Arrays.fill(DIRECTIONS[from._index], (byte) -1);
+            for (int dir = 0; dir < 8; dir += 1) {
+                int col = from._col + DIR[dir][0],
+                    row = from._row + DIR[dir][1];
+                int len;
+                for (len = 0; exists(col, row); len += 1) {
+                    col += DIR[dir][0];
+                    row += DIR[dir][1];
+                }
+                Square[] ray = RAYS[from._index][dir] = new Square[len];
+                for (int k = 0; k < len; k += 1) {
+                    ray[k] = sq(from._col + DIR[dir][0] * (k + 1),
+                                from._row + DIR[dir][1] * (k + 1));
+                    RAY_MASKS[from._index][2 * dir + (ray[k]._index >>> 6)]
+                        |= 1L << ray[k]._index;
+                    DIRECTIONS[from._index][ray[k]._index] = (byte) dir;
+                }
+            }
+        }
+        int last = Board.SIZE - 1;
+        for (int s = 0; s < SYMMETRIES; s += 1) {
+            for (Square sq : SQUARES) {
+                int col = (s & 4) == 0 ? sq._col : sq._row,
+                    row = (s & 4) == 0 ? sq._row : sq._col;
+                col = (s & 1) == 0 ? col : last - col;
+                row = (s & 2) == 0 ? row : last - row;
+                TRANSFORMS[s][sq._index] = (byte) (row * Board.SIZE + col);
+            }
+        }
+        for (int s = 0; s < SYMMETRIES; s += 1) {
+            for (int t = 0; t < SYMMETRIES; t += 1) {
+                if (TRANSFORMS[t][TRANSFORMS[s][1]] == 1
+                    && TRANSFORMS[t][TRANSFORMS[s][Board.SIZE]]
+                       == Board.SIZE) {
+                    INVERSES[s] = t;
+                }
+            }
+        }
     }
 
     /** My index position. */
@@ -0,0 +1,203 @@
+package amazons;
+
+import static amazons.Piece.*;
+
+/** A static evaluator for Amazons positions based on territory.  For
+ *  each side, a multi-source breadth-first search finds the number of
+ *  queen moves (the queen distance) and king moves (the king distance)
+ *  that one of its queens would need to reach each empty square.  A
+ *  side owns the squares it reaches in fewer moves than its opponent.
+ *  The evaluation combines the owned squares under both distances with
+ *  the number of moves each side's queens have now (their mobility).
+ *
+ *  The searches work on whole sets of squares at a time, held as
+ *  bitboards in the same layout as Board's masks: square index I is bit
+ *  I % 64 of the low word if I < 64, and of the high word otherwise.
+ *  Operations on sets leave their results in the fields _lo and _hi, so
+ *  nothing is allocated during an evaluation.  As a result, a Territory
+ *  must be confined to one thread at a time; each search thread should
+ *  have its own.
+ *  @author Ani Gottiparthy
+ */
+final class Territory {
+
+    /** Weights of the queen-distance territory, king-distance territory,
+     *  and mobility terms. */
+    static final int QUEEN_WEIGHT = 4, KING_WEIGHT = 2, MOBILITY_WEIGHT = 1;
+
+    /** Return the territory evaluation of BOARD: positive if it favors
+     *  white and negative if it favors black.  Does not check whether the
+     *  game is over. */
+    int evaluate(Board board) {
+        long whiteLo = board.mask(WHITE, 0), whiteHi = board.mask(WHITE, 1),
+            blackLo = board.mask(BLACK, 0), blackHi = board.mask(BLACK, 1);
+        long emptyLo = ~(whiteLo | blackLo | board.mask(SPEAR, 0)),
+            emptyHi = ~(whiteHi | blackHi | board.mask(SPEAR, 1)) & HI_MASK;
+        return QUEEN_WEIGHT * territory(whiteLo, whiteHi, blackLo, blackHi,
+                                        emptyLo, emptyHi, true)
+            + KING_WEIGHT * territory(whiteLo, whiteHi, blackLo, blackHi,
+                                      emptyLo, emptyHi, false)
+            + MOBILITY_WEIGHT * (mobility(whiteLo, whiteHi, emptyLo, emptyHi)
+                                 - mobility(blackLo, blackHi,
+                                            emptyLo, emptyHi));
+    }
+
+    /** Return the number of empty squares nearer to white than to black
+     *  less the number nearer to black, measuring distance in queen moves
+     *  if QUEEN, and king moves otherwise.  The white and black queens are
+     *  WHITELO/HI and BLACKLO/HI, and the empty squares EMPTYLO/HI. */
+    int territory(long whiteLo, long whiteHi, long blackLo, long blackHi,
+                  long emptyLo, long emptyHi, boolean queen) {
+        long wFrontLo = whiteLo, wFrontHi = whiteHi,
+            bFrontLo = blackLo, bFrontHi = blackHi;
+        long wSeenLo = 0, wSeenHi = 0, bSeenLo = 0, bSeenHi = 0;
+        int result = 0;
+        while ((wFrontLo | wFrontHi | bFrontLo | bFrontHi) != 0) {
+            reach(wFrontLo, wFrontHi, emptyLo, emptyHi, queen);
+            wFrontLo = _lo & ~wSeenLo;
+            wFrontHi = _hi & ~wSeenHi;
+            wSeenLo |= wFrontLo;
+            wSeenHi |= wFrontHi;
+            reach(bFrontLo, bFrontHi, emptyLo, emptyHi, queen);
+            bFrontLo = _lo & ~bSeenLo;
+            bFrontHi = _hi & ~bSeenHi;
+            bSeenLo |= bFrontLo;
+            bSeenHi |= bFrontHi;
+            result += Long.bitCount(wFrontLo & ~bSeenLo)
+                + Long.bitCount(wFrontHi & ~bSeenHi)
+                - Long.bitCount(bFrontLo & ~wSeenLo)
+                - Long.bitCount(bFrontHi & ~wSeenHi);
+        }
+        return result;
+    }
+
+    /** Return the total number of queen moves available to each of the
+     *  queens in QUEENSLO/HI, where EMPTYLO/HI are the empty squares. */
+    int mobility(long queensLo, long queensHi, long emptyLo, long emptyHi) {
+        int result = 0;
+        for (int w = 0; w < 2; w += 1) {
+            long queens = w == 0 ? queensLo : queensHi;
+            while (queens != 0) {
+                long bit = queens & -queens;
+                queens ^= bit;
+                reach(w == 0 ? bit : 0, w == 0 ? 0 : bit, emptyLo, emptyHi,
+                      true);
+                result += Long.bitCount(_lo) + Long.bitCount(_hi);
+            }
+        }
+        return result;
+    }
+
+    /** Set _lo and _hi to the set of squares in EMPTYLO/HI reachable in
+     *  one queen move (if QUEEN) or king move (otherwise) from some
+     *  square in FROMLO/HI. */
+    void reach(long fromLo, long fromHi, long emptyLo, long emptyHi,
+               boolean queen) {
+        long resultLo = 0, resultHi = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            int n = SHIFTS[dir];
+            long edgeLo = EDGE_MASKS[dir][0], edgeHi = EDGE_MASKS[dir][1];
+            long genLo = fromLo, genHi = fromHi;
+            if (queen) {
+                long proLo = emptyLo & edgeLo, proHi = emptyHi & edgeHi;
+                for (int k = 1; k <= 4; k <<= 1) {
+                    shift(genLo, genHi, n * k);
+                    genLo |= proLo & _lo;
+                    genHi |= proHi & _hi;
+                    shift(proLo, proHi, n * k);
+                    proLo &= _lo;
+                    proHi &= _hi;
+                }
+                shift(genLo, genHi, n * 8);
+                genLo |= proLo & _lo;
+                genHi |= proHi & _hi;
+            }
+            shift(genLo, genHi, n);
+            resultLo |= _lo & edgeLo & emptyLo;
+            resultHi |= _hi & edgeHi & emptyHi;
+        }
+        _lo = resultLo;
+        _hi = resultHi;
+    }
+
+    /** Set _lo and _hi to the set of squares in EMPTYLO/HI connected to
+     *  some square in FROMLO/HI by a chain of king moves through squares
+     *  in EMPTYLO/HI. */
+    void flood(long fromLo, long fromHi, long emptyLo, long emptyHi) {
+        long seenLo = 0, seenHi = 0;
+        reach(fromLo, fromHi, emptyLo, emptyHi, false);
+        while (((_lo & ~seenLo) | (_hi & ~seenHi)) != 0) {
+            seenLo |= _lo;
+            seenHi |= _hi;
+            reach(seenLo, seenHi, emptyLo, emptyHi, false);
+        }
+        _lo = seenLo;
+        _hi = seenHi;
+    }
+
+    /** Return the low word of the result of the last operation on sets
+     *  (reach or flood). */
+    long lo() {
+        return _lo;
+    }
+
+    /** Return the high word of the result of the last operation on
+     *  sets. */
+    long hi() {
+        return _hi;
+    }
+
+    /** Set _lo and _hi to the set of squares whose indices are N more than
+     *  those of the squares in LO/HI, dropping any that fall off either end
+     *  of the board's 128-bit range (but not wrapping at the board's
+     *  edges). */
+    private void shift(long lo, long hi, int n) {
+        if (n >= 64) {
+            _hi = lo << (n - 64);
+            _lo = 0;
+        } else if (n > 0) {
+            _hi = (hi << n) | (lo >>> (64 - n));
+            _lo = lo << n;
+        } else if (n <= -64) {
+            _lo = hi >>> (-n - 64);
+            _hi = 0;
+        } else {
+            _lo = (lo >>> -n) | (hi << (64 + n));
+            _hi = hi >>> -n;
+        }
+    }
+
+    /** The two words of the result of the last operation on sets. */
+    private long _lo, _hi;
+
+    /** The high word of a mask of the whole board. */
+    private static final long HI_MASK =
+        (1L << (Board.SIZE * Board.SIZE - 64)) - 1;
+
+    /** SHIFTS[dir] is the change in square index for one step in
+     *  direction DIR (as for Square.queenMove). */
+    private static final int[] SHIFTS = {
+        Board.SIZE, Board.SIZE + 1, 1, 1 - Board.SIZE,
+        -Board.SIZE, -Board.SIZE - 1, -1, Board.SIZE - 1
+    };
+
+    /** EDGE_MASKS[dir][w] is word w of the mask of squares that can be
+     *  reached by one step in direction DIR.  It excludes the squares that
+     *  a shift wraps around to from the other side of the board, and
+     *  those past the top. */
+    private static final long[][] EDGE_MASKS = new long[8][2];
+
+    static {
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (int i = 0; i < Board.SIZE * Board.SIZE; i += 1) {
+                int col = i % Board.SIZE;
+                int dcol = SHIFTS[dir] - Math.round(SHIFTS[dir]
+                                                    / (float) Board.SIZE)
+                    * Board.SIZE;
+                if (col - dcol >= 0 && col - dcol < Board.SIZE) {
+                    EDGE_MASKS[dir][i >>> 6] |= 1L << i;
+                }
+            }
+        }
+    }
+}
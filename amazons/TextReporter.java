@@ -22,4 +22,18 @@ class TextReporter implements Reporter {
     public void reportMove(Move move) {
         System.out.printf("* %s%n", move);
     }
+
+    @Override
+    public void reportSearch(Piece side, int depth, long millis,
+                             long[] nodes) {
+        StringBuilder rates = new StringBuilder();
+        long total = 0;
+        for (long n : nodes) {
+            total += n;
+            rates.append(' ').append(n * 1000 / Math.max(1, millis));
+        }
+        System.err.printf("%s searched to depth %d in %d ms, %d nodes"
+                          + " (nodes/s per thread:%s)%n",
+                          side.toName(), depth, millis, total, rates);
+    }
 }
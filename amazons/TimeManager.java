@@ -0,0 +1,101 @@
+package amazons;
+
+import java.util.function.LongSupplier;
+
+/** Allots thinking time to the moves of one side in one game, given a
+ *  limit per move, a limit for the whole game, or both.  A search calls
+ *  start before each move and stop after it; in between, it may start a
+ *  new iteration only while canStartIteration() and must abandon its
+ *  current iteration once expired().
+ *  @author Ani Gottiparthy
+ */
+class TimeManager {
+
+    /** A time manager allowing at most MOVEMILLIS milliseconds per move
+     *  and GAMEMILLIS milliseconds in all.  A limit that is not positive
+     *  means no limit. */
+    TimeManager(long moveMillis, long gameMillis) {
+        this(moveMillis, gameMillis, System::nanoTime);
+    }
+
+    /** A time manager as above, reading the time in nanoseconds from
+     *  CLOCK rather than System.nanoTime (as tests may wish to). */
+    TimeManager(long moveMillis, long gameMillis, LongSupplier clock) {
+        _moveMillis = moveMillis;
+        _gameMillis = gameMillis;
+        _clock = clock;
+    }
+
+    /** Start timing a move from position BOARD. */
+    void start(Board board) {
+        _start = _clock.getAsLong();
+        long budget = Long.MAX_VALUE;
+        if (_moveMillis > 0) {
+            budget = _moveMillis;
+        }
+        if (_gameMillis > 0) {
+            long left = Math.max(0, _gameMillis - _usedMillis);
+            int movesLeft = Math.max(MIN_MOVES_LEFT,
+                                     (MAX_SPEARS - board.numMoves()) / 3);
+            budget = Math.min(budget, left / movesLeft);
+        }
+        _budgetNanos = budget == Long.MAX_VALUE ? Long.MAX_VALUE
+            : budget * 1_000_000;
+    }
+
+    /** Return the time allotted to the current move, in milliseconds, or
+     *  Long.MAX_VALUE if it is unlimited. */
+    long budget() {
+        return _budgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+            : _budgetNanos / 1_000_000;
+    }
+
+    /** Return true iff there is enough time left in the current move to
+     *  make starting another, deeper, iteration worthwhile.  An iteration
+     *  takes several times as long as the one before it, so we do not
+     *  start one after half the budget is gone. */
+    boolean canStartIteration() {
+        return elapsedNanos() < _budgetNanos / 2;
+    }
+
+    /** Return true iff the time for the current move has run out. */
+    boolean expired() {
+        return elapsedNanos() >= _budgetNanos;
+    }
+
+    /** Stop timing the current move, charging its time to the game, and
+     *  return the time it took in milliseconds. */
+    long stop() {
+        long millis = elapsedNanos() / 1_000_000;
+        _usedMillis += millis;
+        return millis;
+    }
+
+    /** Return the time used so far in this game, in milliseconds. */
+    long used() {
+        return _usedMillis;
+    }
+
+    /** Return the number of nanoseconds since the current move started. */
+    private long elapsedNanos() {
+        return _clock.getAsLong() - _start;
+    }
+
+    /** The largest number of spears that can be thrown in a game. */
+    private static final int MAX_SPEARS = Board.SIZE * Board.SIZE - 8;
+
+    /** The fewest moves we assume remain for us when dividing up the game
+     *  time. */
+    private static final int MIN_MOVES_LEFT = 8;
+
+    /** Limits per move and per game, in milliseconds. */
+    private final long _moveMillis, _gameMillis;
+    /** Time charged to this game so far, in milliseconds. */
+    private long _usedMillis;
+    /** The source of the time, in nanoseconds. */
+    private final LongSupplier _clock;
+    /** Start of the current move, as read from _clock. */
+    private long _start;
+    /** Time allotted to the current move, in nanoseconds. */
+    private long _budgetNanos = Long.MAX_VALUE;
+}
@@ -0,0 +1,372 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+
+import ucb.util.CommandArgs;
+
+/** A match of many games between two engines, played headless and in
+ *  parallel.  The engines are Player templates (as for Controller) that
+ *  can choose moves by themselves (see Player.findMove); each game gets
+ *  new players created from them, with no controller.  Games come in
+ *  pairs that start from the same opening with the engines' colors
+ *  swapped, and the openings are used in turn.  Without openings, each
+ *  pair starts with a few random moves instead, since otherwise
+ *  deterministic engines would play the same two games over and over.
+ *  The match stops early
+ *  once an SPRT (see Sprt) on the results so far reaches a decision.
+ *  @author Ani Gottiparthy
+ */
+final class Tournament {
+
+    /** A match between the engines FIRST and SECOND, starting games from
+     *  the positions after each of OPENINGS (lists of packed moves, see
+     *  Move.code), or if there are none, after random openings (see
+     *  randomOpening), with THREADS games at a time, and deciding it by
+     *  SPRT. */
+    Tournament(Player first, Player second, List<int[]> openings,
+               int threads, Sprt sprt) {
+        _first = first;
+        _second = second;
+        _openings = openings;
+        _threads = Math.max(1, threads);
+        _sprt = sprt;
+    }
+
+    /** Play at most GAMES games, stopping early if the SPRT reaches a
+     *  decision, and reporting progress every REPORT_INTERVAL games to
+     *  PROGRESS (if not null).  Returns once all games have stopped. */
+    void run(int games, PrintStream progress) {
+        _progress = progress;
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        for (int k = 0; k < games; k += 1) {
+            int game = k;
+            pool.execute(() -> play(game));
+        }
+        pool.shutdown();
+        while (true) {
+            try {
+                if (pool.awaitTermination(1, TimeUnit.DAYS)) {
+                    break;
+                }
+            } catch (InterruptedException excp) {
+                continue;
+            }
+        }
+    }
+
+    /** Append each game played to ARCHIVE (if not null), with the
+     *  engines named FIRSTNAME and SECONDNAME. */
+    void setArchive(ArchiveWriter archive, String firstName,
+                    String secondName) {
+        _archive = archive;
+        _firstName = firstName;
+        _secondName = secondName;
+    }
+
+    /** Return my SPRT, which holds the results. */
+    Sprt sprt() {
+        return _sprt;
+    }
+
+    /** Play game number GAME and record its result, unless the match is
+     *  already decided. */
+    private void play(int game) {
+        if (_decided) {
+            return;
+        }
+        boolean firstIsWhite = game % 2 == 0;
+        int[] opening = _openings.isEmpty() ? randomOpening(game / 2)
+            : _openings.get(game / 2 % _openings.size());
+        Player white = (firstIsWhite ? _first : _second).create(WHITE, null),
+            black = (firstIsWhite ? _second : _first).create(BLACK, null);
+        Board board = new Board();
+        for (int move : opening) {
+            board.makeMove(move);
+        }
+        int[] moves = new int[GameRecord.MAX_MOVES];
+        System.arraycopy(opening, 0, moves, 0, opening.length);
+        int numMoves = opening.length;
+        int[] millis = new int[2];
+        long start = System.currentTimeMillis();
+        Piece winner;
+        while (true) {
+            winner = board.winner();
+            if (winner != null || _decided) {
+                break;
+            }
+            Player player = board.turn() == WHITE ? white : black;
+            long time = System.currentTimeMillis();
+            Move move = player.findMove(board);
+            millis[board.turn() == WHITE ? 0 : 1] +=
+                (int) (System.currentTimeMillis() - time);
+            if (move == null || !board.isLegal(move)) {
+                winner = board.turn().opponent();
+                break;
+            }
+            board.makeMove(move);
+            moves[numMoves] = move.code();
+            numMoves += 1;
+        }
+        white.dispose();
+        black.dispose();
+        if (winner != null) {
+            GameRecord played = _archive == null ? null
+                : new GameRecord(moves, numMoves, winner,
+                                 firstIsWhite ? _firstName : _secondName,
+                                 firstIsWhite ? _secondName : _firstName,
+                                 millis[0], millis[1], start);
+            record(winner == (firstIsWhite ? WHITE : BLACK), played);
+        }
+    }
+
+    /** Return RANDOM_PLIES random moves from the start, as packed codes
+     *  (see Move.code), chosen by a generator seeded with PAIR, so that
+     *  both games of each pair, and each run of a match, get the same
+     *  opening. */
+    static int[] randomOpening(int pair) {
+        Random random = new Random(pair);
+        Board board = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        int[] opening = new int[RANDOM_PLIES];
+        for (int i = 0; i < RANDOM_PLIES; i += 1) {
+            int n = board.legalMoves(board.turn(), moves);
+            opening[i] = moves[random.nextInt(n)];
+            board.makeMove(opening[i]);
+        }
+        return opening;
+    }
+
+    /** Record a game won by the first engine iff WON, archiving GAME if
+     *  not null, and report progress if it is time to. */
+    private synchronized void record(boolean won, GameRecord game) {
+        if (_decided) {
+            return;
+        }
+        if (game != null) {
+            try {
+                _archive.add(game);
+            } catch (IOException excp) {
+                System.err.printf("Error: could not archive game: %s%n",
+                                  excp.getMessage());
+                _archive = null;
+            }
+        }
+        _sprt.add(won);
+        _decided = _sprt.result() != Sprt.CONTINUE;
+        int played = _sprt.wins() + _sprt.losses();
+        if (_progress != null && played % REPORT_INTERVAL == 0) {
+            report(_progress);
+        }
+    }
+
+    /** Print a summary of the results so far on OUT. */
+    void report(PrintStream out) {
+        int wins = _sprt.wins(), losses = _sprt.losses();
+        out.printf("Games %d: first %d - second %d, Elo %+.1f,"
+                   + " LLR %.2f [%.2f, %.2f]%s%n", wins + losses, wins,
+                   losses, _sprt.elo(), _sprt.llr(), _sprt.lowerBound(),
+                   _sprt.upperBound(),
+                   _sprt.result() == Sprt.ACCEPT_H1 ? ": H1 accepted"
+                   : _sprt.result() == Sprt.ACCEPT_H0 ? ": H0 accepted" : "");
+        out.flush();
+    }
+
+    /** Play a match as described by ARGS, and report the results.
+     *  Options:  --first=SPEC and --second=SPEC describe the engines (see
+     *  engine); --games=N (default 1000) limits the number of games;
+     *  --threads=N (default, the number of processors) sets how many are
+     *  played at once; --openings=FILE names a file of openings, one to a
+     *  line as moves separated by blanks (by default, random openings
+     *  are used); --archive=FILE names a game
+     *  archive (see ArchiveWriter) in which to record the games; and
+     *  --elo0=E (default 0) and --elo1=E (default 10) give the SPRT's
+     *  hypotheses, tested with error probabilities of 5%. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--first= --second= --games={0,1}"
+                            + " --threads={0,1} --openings={0,1}"
+                            + " --archive={0,1}"
+                            + " --elo0={0,1} --elo1={0,1}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java amazons.Tournament --first=SPEC"
+                               + " --second=SPEC [--games=N] [--threads=N]"
+                               + " [--openings=FILE] [--archive=FILE]"
+                               + " [--elo0=E] [--elo1=E]");
+            System.exit(1);
+        }
+        try {
+            Player first = engine(options.getFirst("--first")),
+                second = engine(options.getFirst("--second"));
+            List<int[]> openings = new ArrayList<>();
+            if (options.contains("--openings")) {
+                openings = readOpenings(options.getFirst("--openings"));
+            }
+            int games = options.contains("--games")
+                ? Integer.parseInt(options.getFirst("--games")) : GAMES;
+            int threads = options.contains("--threads")
+                ? Integer.parseInt(options.getFirst("--threads"))
+                : Runtime.getRuntime().availableProcessors();
+            double elo0 = options.contains("--elo0")
+                ? Double.parseDouble(options.getFirst("--elo0")) : 0;
+            double elo1 = options.contains("--elo1")
+                ? Double.parseDouble(options.getFirst("--elo1")) : ELO1;
+            Tournament match =
+                new Tournament(first, second, openings, threads,
+                               new Sprt(elo0, elo1, ERROR, ERROR));
+            ArchiveWriter archive = null;
+            if (options.contains("--archive")) {
+                archive = new ArchiveWriter(options.getFirst("--archive"));
+                match.setArchive(archive, options.getFirst("--first"),
+                                 options.getFirst("--second"));
+            }
+            match.run(games, System.out);
+            match.report(System.out);
+            if (archive != null) {
+                archive.close();
+            }
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return a template for the engine described by SPEC: "ai" or
+     *  "mcts", followed by settings separated by commas: time=MS (time
+     *  per move), depth=N, hash=MB, and threads=N (the last three for ai
+     *  only), in any order.  For example, "ai,depth=3" or
+     *  "mcts,time=100".  An ai with both a depth and a time stops at
+     *  whichever limit it reaches first, and time=0 means no time limit,
+     *  so it then needs a depth; an mcts engine must have a time. */
+    static Player engine(String spec) {
+        String[] parts = spec.split(",");
+        AI ai = null;
+        MCTSPlayer mcts = null;
+        switch (parts[0]) {
+        case "ai":
+            ai = new AI();
+            break;
+        case "mcts":
+            mcts = new MCTSPlayer();
+            break;
+        default:
+            throw error("unknown engine: %s", parts[0]);
+        }
+        int time = -1, depth = 0;
+        for (int i = 1; i < parts.length; i += 1) {
+            String[] setting = parts[i].split("=", 2);
+            if (setting.length != 2) {
+                throw error("bad engine setting: %s", parts[i]);
+            }
+            int value = Integer.parseInt(setting[1]);
+            switch (setting[0]) {
+            case "time":
+                time = value;
+                break;
+            case "depth":
+            case "hash":
+            case "threads":
+                if (ai == null) {
+                    throw error("%s applies only to ai", setting[0]);
+                } else if (setting[0].equals("depth")) {
+                    depth = value;
+                } else if (setting[0].equals("hash")) {
+                    ai.setHashSize(value);
+                } else {
+                    ai.setThreads(value);
+                }
+                break;
+            default:
+                throw error("unknown engine setting: %s", setting[0]);
+            }
+        }
+        if (ai != null && time == 0 && depth <= 0) {
+            throw error("an ai with no time limit needs a depth");
+        }
+        if (depth > 0) {
+            ai.setDepth(depth);
+        }
+        if (time >= 0 && ai != null) {
+            ai.setTimeControl(time, 0);
+        } else if (time >= 0) {
+            mcts.setTimeControl(time, 0);
+        }
+        return ai != null ? ai : mcts;
+    }
+
+    /** Return the openings in the file named NAME: one to a line, each a
+     *  sequence of moves separated by blanks.  Blank lines and comments
+     *  (from # to the end of a line) are ignored. */
+    static List<int[]> readOpenings(String name) {
+        List<int[]> result = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(name))) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                line = line.replaceFirst("#.*", "").trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] words = line.split("\\s+");
+                int[] opening = new int[words.length];
+                Board board = new Board();
+                for (int i = 0; i < words.length; i += 1) {
+                    Move move = Move.mv(words[i]);
+                    if (move == null || !board.isLegal(move)) {
+                        throw error("bad move in opening: %s", words[i]);
+                    }
+                    board.makeMove(move);
+                    opening[i] = move.code();
+                }
+                result.add(opening);
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+        return result;
+    }
+
+    /** Default number of games. */
+    private static final int GAMES = 1000;
+    /** Default Elo advantage under H1. */
+    private static final double ELO1 = 10;
+    /** Error probabilities of the SPRT. */
+    private static final double ERROR = 0.05;
+    /** Number of random moves in an opening when none are given. */
+    static final int RANDOM_PLIES = 4;
+    /** Number of games between progress reports. */
+    private static final int REPORT_INTERVAL = 100;
+
+    /** The engines' templates. */
+    private final Player _first, _second;
+    /** The openings. */
+    private final List<int[]> _openings;
+    /** The number of games played at once. */
+    private final int _threads;
+    /** The test deciding the match, holding its results. */
+    private final Sprt _sprt;
+    /** True once the match is decided. */
+    private volatile boolean _decided;
+    /** Where to report progress, or null. */
+    private PrintStream _progress;
+    /** Where to archive games, or null. */
+    private ArchiveWriter _archive;
+    /** The engines' names in the archive. */
+    private String _firstName, _secondName;
+}
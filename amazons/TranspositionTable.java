@@ -0,0 +1,125 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A fixed-size table of search results, indexed by Zobrist key (see
+ *  Board.key()).  Entries live in a preallocated long[], two longs per
+ *  entry: the key XORed with the data, and the data itself.  Several
+ *  threads may probe and store concurrently without locking: a probe
+ *  accepts an entry only if its two words still XOR to the key, so an
+ *  entry torn by a racing store reads as a miss.  Entries are grouped in
+ *  buckets of two.  The first slot of a bucket keeps the deepest result
+ *  stored there (depth-preferred); the second takes whatever the first
+ *  rejects.
+ *  @author Ani Gottiparthy
+ */
+final class TranspositionTable {
+
+    /** Bound types.  EXACT: the score is the value of the position.
+     *  LOWER: the value is at least the score.  UPPER: the value is at
+     *  most the score. */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** A table with room for at least ENTRIES entries (rounded up to a
+     *  power of two, and to at least one bucket). */
+    TranspositionTable(int entries) {
+        int buckets = Integer.highestOneBit(Math.max(1, entries / 2));
+        if (buckets < entries / 2) {
+            buckets <<= 1;
+        }
+        _table = new long[4 * buckets];
+        _mask = buckets - 1;
+    }
+
+    /** Return the number of entries in this table. */
+    int size() {
+        return _table.length / 2;
+    }
+
+    /** Remove all entries.  Not safe to call during a search. */
+    void clear() {
+        Arrays.fill(_table, 0L);
+    }
+
+    /** Return the data stored for the position whose key is KEY, or 0 if
+     *  there is none.  The fields of a nonzero result are extracted with
+     *  depth, bound, score, and move. */
+    long probe(long key) {
+        int i = index(key);
+        long data = _table[i + 1];
+        if ((_table[i] ^ data) == key && data != 0) {
+            return data;
+        }
+        data = _table[i + 3];
+        if ((_table[i + 2] ^ data) == key && data != 0) {
+            return data;
+        }
+        return 0;
+    }
+
+    /** Record that a search of DEPTH levels from the position with key
+     *  KEY found SCORE, which is a bound of type BOUND (EXACT, LOWER, or
+     *  UPPER) on its value, and that MOVE (a packed code as for
+     *  Move.code, or 0 if none) was the best move found. */
+    void store(long key, int depth, int bound, int score, int move) {
+        long data = data(depth, bound, score, move);
+        int i = index(key);
+        long old = _table[i + 1];
+        if (depth >= depth(old) || (_table[i] ^ old) == key) {
+            _table[i] = key ^ data;
+            _table[i + 1] = data;
+        } else {
+            _table[i + 2] = key ^ data;
+            _table[i + 3] = data;
+        }
+    }
+
+    /** Return the data word that store records for DEPTH, BOUND, SCORE,
+     *  and MOVE, as returned by probe. */
+    static long data(int depth, int bound, int score, int move) {
+        return ((long) bound << BOUND_SHIFT)
+            | ((long) Math.min(depth, MAX_DEPTH) << DEPTH_SHIFT)
+            | ((long) move << MOVE_SHIFT)
+            | (score & 0xffffffffL);
+    }
+
+    /** Return the search depth recorded in DATA, a result of probe. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & MAX_DEPTH;
+    }
+
+    /** Return the bound type recorded in DATA, a result of probe. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & 3;
+    }
+
+    /** Return the score recorded in DATA, a result of probe. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the best move recorded in DATA, a result of probe, as a
+     *  packed code, or 0 if none was recorded. */
+    static int move(long data) {
+        return (int) (data >>> MOVE_SHIFT) & 0x1fffff;
+    }
+
+    /** Return the index in _table of the bucket for KEY. */
+    private int index(long key) {
+        return (int) (key ^ (key >>> 32)) & _mask << 2;
+    }
+
+    /** Positions of the fields of an entry's data word.  The score is in
+     *  the low 32 bits. */
+    private static final int
+        MOVE_SHIFT = 32, DEPTH_SHIFT = 53, BOUND_SHIFT = 61;
+
+    /** The largest depth that can be recorded. */
+    private static final int MAX_DEPTH = 0xff;
+
+    /** The entries, four longs (two entries) per bucket. */
+    private final long[] _table;
+
+    /** The number of buckets, less one. */
+    private final int _mask;
+}
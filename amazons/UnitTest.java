@@ -7,9 +7,18 @@ import static org.junit.Assert.*;
 import ucb.junit.textui;
 
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
 import java.util.Iterator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.Arrays;
 
@@ -126,6 +135,91 @@ public class UnitTest {
                 Square.sq(3, 8), Square.sq(3, 5)));
     }
 
+    /** Tests that undo restores the position, including a spear thrown
+     *  back onto the vacated square. */
+    @Test
+    public void testMoveUndo() {
+        Board b = new Board();
+        b.makeMove(Square.sq(3, 0), Square.sq(3, 4), Square.sq(3, 0));
+        assertEquals(SPEAR, b.get(3, 0));
+        assertEquals(WHITE, b.get(3, 4));
+        b.makeMove(Square.sq(6, 9), Square.sq(6, 5), Square.sq(4, 3));
+        assertEquals(BLACK, b.get(6, 5));
+        assertEquals(SPEAR, b.get(4, 3));
+        b.undo();
+        b.undo();
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        assertEquals(WHITE, b.turn());
+    }
+
+    /** Tests that copies of a board do not share state with it. */
+    @Test
+    public void testIndependentBoards() {
+        Board b = new Board();
+        Board c = new Board(b);
+        c.makeMove(Square.sq(3, 0), Square.sq(3, 4), Square.sq(5, 6));
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        assertEquals(0, b.numMoves());
+        assertEquals(1, c.numMoves());
+        assertEquals(WHITE, b.turn());
+        assertEquals(BLACK, c.turn());
+        b.makeMove(Square.sq(6, 0), Square.sq(6, 1), Square.sq(6, 0));
+        c.undo();
+        assertEquals(INIT_BOARD_STATE, c.toString());
+        assertEquals(WHITE, b.get(6, 1));
+    }
+
+    /** Tests that the Zobrist key is restored by undo and depends only on
+     *  the position, not the order of the moves that reached it. */
+    @Test
+    public void testKey() {
+        Board b = new Board();
+        long start = b.key();
+        Move w1 = Move.mv("d1-d4(e4)"), w2 = Move.mv("g1-g2(h3)"),
+            b1 = Move.mv("a7-b7(c7)");
+        b.makeMove(w1);
+        assertNotEquals(start, b.key());
+        b.makeMove(b1);
+        b.makeMove(w2);
+        long key = b.key();
+        b.undo();
+        b.undo();
+        b.undo();
+        assertEquals(start, b.key());
+        b.makeMove(w2);
+        b.makeMove(b1);
+        b.makeMove(w1);
+        assertEquals(key, b.key());
+        assertEquals(key, new Board(b).key());
+        b.put(EMPTY, Square.sq(4, 3));
+        b.put(SPEAR, Square.sq(4, 3));
+        assertEquals(key, b.key());
+        b.init();
+        assertEquals(start, b.key());
+    }
+
+    /** Tests storing and probing transposition table entries. */
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(4);
+        assertEquals(4, table.size());
+        int move = Move.mv("d1-d4(e4)").code();
+        table.store(17, 3, TranspositionTable.LOWER, -25, move);
+        long data = table.probe(17);
+        assertEquals(3, TranspositionTable.depth(data));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(data));
+        assertEquals(-25, TranspositionTable.score(data));
+        assertEquals(move, TranspositionTable.move(data));
+        assertEquals(0, table.probe(18));
+        table.store(17 + (1L << 40), 1, TranspositionTable.EXACT, 5, 0);
+        assertEquals(3, TranspositionTable.depth(table.probe(17)));
+        assertEquals(5, TranspositionTable.score(table.probe(17 + (1L << 40))));
+        table.store(17 + (2L << 40), 4, TranspositionTable.UPPER, 9, 0);
+        assertEquals(4, TranspositionTable.depth(table.probe(17 + (2L << 40))));
+        table.clear();
+        assertEquals(0, table.probe(17 + (2L << 40)));
+    }
+
     @Test
     public void testMove() {
         Board d = new Board();
@@ -288,6 +382,29 @@ public class UnitTest {
     }
 
 
+    /** Tests that filling a move buffer yields exactly the moves of the
+     *  legal move iterator, in the same order. */
+    @Test
+    public void testLegalMoveBuffer() {
+        Board b = new Board();
+        int[] buffer = new int[Board.MAX_MOVES];
+        assertEquals(2176, b.legalMoves(WHITE, buffer));
+        b.makeMove(Square.sq(3, 0), Square.sq(3, 4), Square.sq(6, 4));
+        for (Piece side : new Piece[] { WHITE, BLACK }) {
+            int n = b.legalMoves(side, buffer);
+            Iterator<Move> moves = b.legalMoves(side);
+            for (int i = 0; i < n; i += 1) {
+                assertSame(moves.next(), Move.mv(buffer[i]));
+            }
+            assertFalse(moves.hasNext());
+        }
+        buildBoard(b, ONEMOVEWHITE);
+        assertEquals(1, b.legalMoves(WHITE, buffer));
+        assertTrue(ONEMOVEWHITESQUARE.contains(Move.mv(buffer[0])));
+        buildBoard(b, ONEPIECE);
+        assertEquals(769, b.legalMoves(WHITE, buffer));
+    }
+
     private void buildBoard(Board b, Piece[][] target) {
         for (int col = 0; col < Board.SIZE; col++) {
             for (int row = Board.SIZE - 1; row >= 0; row--) {
@@ -428,6 +545,32 @@ public class UnitTest {
                 Square.sq(0, 9).queenMove(3, 9).toString());
     }
 
+    /** Tests the precomputed rays against queenMove. */
+    @Test
+    public void testRays() {
+        Square s = Square.sq(2, 7);
+        assertEquals(2, s.ray(0).length);
+        assertEquals(7, s.ray(2).length);
+        assertEquals(2, s.ray(7).length);
+        for (int dir = 0; dir < 8; dir += 1) {
+            Square[] ray = s.ray(dir);
+            long lo = 0, hi = 0;
+            for (int k = 0; k < ray.length; k += 1) {
+                assertEquals(s.queenMove(dir, k + 1), ray[k]);
+                assertEquals(dir, s.direction(ray[k]));
+                if (ray[k].index() < 64) {
+                    lo |= 1L << ray[k].index();
+                } else {
+                    hi |= 1L << ray[k].index();
+                }
+            }
+            assertNull(s.queenMove(dir, ray.length + 1));
+            assertEquals(lo, s.rayMask(dir, 0));
+            assertEquals(hi, s.rayMask(dir, 1));
+        }
+        assertEquals(-1, s.direction(Square.sq(3, 5)));
+    }
+
     @Test
     public void testString() {
         assertEquals("a9", Square.sq(0, 8).toString());
@@ -462,7 +605,886 @@ public class UnitTest {
         assertEquals(7, Square.sq(9, 0).direction(Square.sq(0, 9)));
     }
 
-}
+    /** Tests the bitboard queen reach and mobility used by Territory
+     *  against reachableFrom, over a random game. */
+    @Test
+    public void testTerritoryReach() {
+        Board b = new Board();
+        Territory territory = new Territory();
+        assertEquals(0, territory.evaluate(b));
+        java.util.Random random = new java.util.Random(5);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int n = b.legalMoves(b.turn(), moves); n > 0;
+             n = b.legalMoves(b.turn(), moves)) {
+            b.makeMove(moves[random.nextInt(n)]);
+            long emptyLo = 0, emptyHi = 0;
+            for (int i = 0; i < 100; i += 1) {
+                if (b.get(Square.sq(i)) == EMPTY) {
+                    if (i < 64) {
+                        emptyLo |= 1L << i;
+                    } else {
+                        emptyHi |= 1L << i;
+                    }
+                }
+            }
+            for (Piece side : new Piece[] { WHITE, BLACK }) {
+                int count = 0;
+                for (int i = 0; i < 100; i += 1) {
+                    if (b.get(Square.sq(i)) == side) {
+                        Iterator<Square> to = b.reachableFrom(Square.sq(i),
+                                                              null);
+                        while (to.hasNext()) {
+                            to.next();
+                            count += 1;
+                        }
+                    }
+                }
+                assertEquals(count,
+                             territory.mobility(b.mask(side, 0),
+                                                b.mask(side, 1),
+                                                emptyLo, emptyHi));
+            }
+        }
+    }
+
+    /** Tests territory counts on a board divided into separate regions. */
+    @Test
+    public void testTerritory() {
+        Board b = new Board();
+        buildBoard(b, TERRITORY);
+        long empty0 = ~(b.mask(WHITE, 0) | b.mask(BLACK, 0)
+                        | b.mask(SPEAR, 0)),
+            empty1 = ~(b.mask(WHITE, 1) | b.mask(BLACK, 1)
+                       | b.mask(SPEAR, 1)) & ((1L << 36) - 1);
+        Territory territory = new Territory();
+        int queen = territory.territory(b.mask(WHITE, 0), b.mask(WHITE, 1),
+                                        b.mask(BLACK, 0), b.mask(BLACK, 1),
+                                        empty0, empty1, true);
+        int king = territory.territory(b.mask(WHITE, 0), b.mask(WHITE, 1),
+                                       b.mask(BLACK, 0), b.mask(BLACK, 1),
+                                       empty0, empty1, false);
+        assertEquals(59 - 5, queen);
+        assertEquals(59 - 5, king);
+        assertTrue(territory.evaluate(b) > 0);
+    }
+
+    static final Piece[][] TERRITORY =
+    {
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, W, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { B, E, E, S, E, E, E, E, S, S },
+        { E, E, E, S, E, E, E, E, S, W },
+    };
+
+    /** Check move generation against the known numbers of move sequences
+     *  of lengths 1 and 2 from the start position, counting with and
+     *  without threads and a cache. */
+    @Test
+    public void testPerft() {
+        Board b = new Board();
+        assertEquals(1, new Perft(1, 0).count(b, 0));
+        assertEquals(2176, new Perft(1, 0).count(b, 1));
+        assertEquals(4307152, new Perft(1, 0).count(b, 2));
+        assertEquals(4307152, new Perft(3, 1 << 10).count(b, 2));
+        int[] moves = new int[Board.MAX_MOVES];
+        long[] counts = new long[Board.MAX_MOVES];
+        int n = new Perft(2, 0).divide(b, 2, moves, counts);
+        assertEquals(2176, n);
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            total += counts[i];
+        }
+        assertEquals(4307152, total);
+        assertEquals(new Board().toString(), b.toString());
+    }
+
+    @Test
+    public void testSprt() {
+        assertEquals(0.5, Sprt.score(0), 1e-12);
+        assertEquals(1 / 1.1, Sprt.score(400), 1e-12);
+        Sprt sprt = new Sprt(0, 10, 0.05, 0.05);
+        assertEquals(Math.log(19), sprt.upperBound(), 1e-12);
+        assertEquals(-Math.log(19), sprt.lowerBound(), 1e-12);
+        assertEquals(Sprt.CONTINUE, sprt.result());
+        for (int i = 0; i < 100; i += 1) {
+            sprt.add(i % 2 == 0);
+        }
+        assertEquals(Sprt.CONTINUE, sprt.result());
+        assertEquals(0, sprt.elo(), 1e-9);
+        while (sprt.result() == Sprt.CONTINUE) {
+            sprt.add(true);
+        }
+        assertEquals(Sprt.ACCEPT_H1, sprt.result());
+        assertTrue(sprt.elo() > 0);
+        sprt = new Sprt(0, 10, 0.05, 0.05);
+        while (sprt.result() == Sprt.CONTINUE) {
+            sprt.add(false);
+        }
+        assertEquals(Sprt.ACCEPT_H0, sprt.result());
+        assertTrue(Double.isNaN(sprt.elo()));
+    }
+
+    /** Test the division of time among moves, and the checks made
+     *  during a search, on a clock that moves only when told to. */
+    @Test
+    public void testTimeManager() {
+        Board b = new Board();
+        long[] now = { 0 };
+        TimeManager timer = new TimeManager(0, 0, () -> now[0]);
+        timer.start(b);
+        assertEquals(Long.MAX_VALUE, timer.budget());
+        now[0] += 1_000_000_000_000L;
+        assertTrue(timer.canStartIteration());
+        assertFalse(timer.expired());
+        timer = new TimeManager(100, 0);
+        timer.start(b);
+        assertEquals(100, timer.budget());
+        timer = new TimeManager(0, 9000);
+        timer.start(b);
+        assertEquals(9000 / 30, timer.budget());
+        timer = new TimeManager(200, 9000);
+        timer.start(b);
+        assertEquals(200, timer.budget());
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 32; k += 1) {
+            b.legalMoves(b.turn(), moves);
+            b.makeMove(moves[0]);
+        }
+        timer = new TimeManager(0, 9000);
+        timer.start(b);
+        assertEquals(9000 / 20, timer.budget());
+
+        timer = new TimeManager(200, 9000, () -> now[0]);
+        timer.start(b);
+        now[0] += 99_000_000;
+        assertTrue(timer.canStartIteration());
+        now[0] += 1_000_000;
+        assertFalse(timer.canStartIteration());
+        now[0] += 99_000_000;
+        assertFalse(timer.expired());
+        now[0] += 1_000_000;
+        assertTrue(timer.expired());
+        assertEquals(200, timer.stop());
+        assertEquals(200, timer.used());
+        timer = new TimeManager(0, 9000, () -> now[0]);
+        timer.start(b);
+        now[0] += 1_000_000_000;
+        timer.stop();
+        timer.start(b);
+        assertEquals((9000 - 1000) / 20, timer.budget());
+        now[0] += 40_000_000;
+        assertEquals(40, timer.stop());
+        assertEquals(1040, timer.used());
+    }
+
+    /** Test that a timed search abandons the iteration in progress when
+     *  time runs out, and returns the move and value of the last one
+     *  completed. */
+    @Test
+    public void testTimedSearch() {
+        AI timed = (AI) new AI().setTimeControl(300, 0).create(WHITE, null);
+        long start = System.currentTimeMillis();
+        Move move = timed.findMove(new Board());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        int reached = timed.depthReached();
+        assertTrue(reached >= 1);
+        AI fixed = (AI) new AI().setDepth(reached).create(WHITE, null);
+        assertSame(fixed.findMove(new Board()), move);
+        assertEquals(fixed.value(), timed.value());
+    }
+
+    /** Test that deterministic searches give the same moves and values
+     *  with one thread and with several, the same values as an ordinary
+     *  search to the same depth, and that Lazy SMP with several
+     *  threads returns a legal move. */
+    @Test
+    public void testThreads() {
+        AI one = (AI) new AI().setDepth(2).setDeterministic(true)
+            .create(WHITE, null);
+        AI three = (AI) new AI().setDepth(2).setDeterministic(true)
+            .setThreads(3).create(WHITE, null);
+        AI plain = (AI) new AI().setDepth(2).create(WHITE, null);
+        List<Board> positions = midgamePositions();
+        for (Board b : positions) {
+            assertSame(one.findMove(b), three.findMove(b));
+            assertEquals(one.value(), three.value());
+            assertEquals(2, three.depthReached());
+            plain.findMove(b);
+            assertEquals(plain.value(), three.value());
+        }
+        Board b = positions.get(positions.size() - 1);
+        AI shared = (AI) new AI().setTimeControl(200, 0).setThreads(3)
+            .create(WHITE, null);
+        assertTrue(b.isLegal(shared.findMove(b)));
+        shared.dispose();
+    }
+
+    /** Test that move ordering puts the hash move and then the killer
+     *  moves first, and that it does not change the values found by
+     *  fixed-depth searches. */
+    @Test
+    public void testMoveOrdering() {
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(WHITE, moves);
+        int[] original = Arrays.copyOf(moves, n);
+        int hash = moves[100], killer1 = moves[200], killer2 = moves[300];
+        AI ai = (AI) new AI().setDepth(1).create(WHITE, null);
+        ai.order(b, moves, n, hash, killer1, killer2);
+        assertEquals(hash, moves[0]);
+        assertEquals(killer2, moves[1]);
+        assertEquals(killer1, moves[2]);
+        int[] sorted = Arrays.copyOf(moves, n);
+        Arrays.sort(sorted);
+        Arrays.sort(original);
+        assertArrayEquals(original, sorted);
+
+        AI ordered = (AI) new AI().setDepth(2).create(WHITE, null),
+            unordered = (AI) new AI().setDepth(2).setOrdering(false)
+            .create(WHITE, null);
+        for (Board position : midgamePositions()) {
+            ordered.findMove(position);
+            unordered.findMove(position);
+            assertEquals(unordered.value(), ordered.value());
+            assertEquals(2, ordered.depthReached());
+        }
+    }
+
+    /** Return the positions with white to move after 34 to 40 plies of a
+     *  game whose moves are picked from the legal ones by a fixed rule,
+     *  in order.  They are far enough into the game for shallow searches
+     *  to be quick. */
+    private List<Board> midgamePositions() {
+        List<Board> result = new ArrayList<>();
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 40; k += 1) {
+            int n = b.legalMoves(b.turn(), moves);
+            b.makeMove(moves[7 * k % n]);
+            if (k >= 33 && b.turn() == WHITE) {
+                result.add(new Board(b));
+            }
+        }
+        return result;
+    }
+
+    /** Test a short match: colors alternate, each pair of games shares
+     *  an opening, every game is counted, engine settings do not depend
+     *  on their order, and an ai with no limit at all is rejected. */
+    @Test
+    public void testTournament() throws IOException {
+        File archiveFile = File.createTempFile("amazons", ".games");
+        archiveFile.deleteOnExit();
+        Tournament match =
+            new Tournament(Tournament.engine("ai,depth=1"),
+                           Tournament.engine("ai,depth=1,hash=1"),
+                           new ArrayList<>(), 1, new Sprt(0, 10, 0.05, 0.05));
+        try (ArchiveWriter out = new ArchiveWriter(archiveFile.getPath())) {
+            match.setArchive(out, "first", "second");
+            match.run(4, null);
+        }
+        assertEquals(4, match.sprt().wins() + match.sprt().losses());
+        int wins = 0;
+        try (ArchiveReader in = new ArchiveReader(archiveFile.getPath())) {
+            assertEquals(4, in.size());
+            for (int k = 0; k < 4; k += 1) {
+                GameRecord game = in.game(k);
+                assertEquals(k % 2 == 0 ? "first" : "second",
+                             game.name(WHITE));
+                assertNotNull(game.winner());
+                if (game.name(game.winner()).equals("first")) {
+                    wins += 1;
+                }
+                int[] opening = Tournament.randomOpening(k / 2);
+                for (int i = 0; i < opening.length; i += 1) {
+                    assertEquals(opening[i], game.move(i));
+                }
+            }
+        }
+        assertEquals(wins, match.sprt().wins());
+        assertFalse(Arrays.equals(Tournament.randomOpening(0),
+                                  Tournament.randomOpening(1)));
+        AI timed = (AI) Tournament.engine("ai,time=100,depth=3")
+            .create(WHITE, null);
+        long start = System.currentTimeMillis();
+        timed.findMove(new Board());
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        try {
+            Tournament.engine("ai,time=0");
+            fail("accepted an ai with no limit");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+        assertNotNull(Tournament.engine("ai,time=0,depth=1"));
+    }
+
+    @Test
+    public void testArchive() throws IOException {
+        File file = File.createTempFile("amazons", ".games");
+        file.deleteOnExit();
+        List<GameRecord> games = new ArrayList<>();
+        Random random = new Random(42);
+        int[] moves = new int[GameRecord.MAX_MOVES];
+        try (ArchiveWriter out = new ArchiveWriter(file.getPath())) {
+            for (int k = 0; k < 50; k += 1) {
+                Board b = new Board();
+                int n;
+                for (n = 0; b.winner() == null && n < k; n += 1) {
+                    int[] legal = new int[Board.MAX_MOVES];
+                    int count = b.legalMoves(b.turn(), legal);
+                    moves[n] = legal[random.nextInt(count)];
+                    b.makeMove(moves[n]);
+                }
+                GameRecord game =
+                    new GameRecord(moves, n, b.winner(), "white " + k,
+                                   k % 3 == 0 ? "" : "bl\u00e4ck", k, 2 * k,
+                                   1000L * k);
+                games.add(game);
+                assertEquals(k, out.add(game));
+            }
+        }
+        for (int segment : new int[] { ArchiveWriter.MAX_RECORD, 1 << 20 }) {
+            try (ArchiveReader in =
+                 new ArchiveReader(file.getPath(), segment)) {
+                assertEquals(games.size(), in.size());
+                for (int k = in.size() - 1; k >= 0; k -= 1) {
+                    GameRecord game = in.game(k);
+                    assertEquals(games.get(k), game);
+                    assertEquals(game.winner(), in.winner(k));
+                    assertEquals(game.numMoves(), in.moves(k, moves));
+                    assertEquals(game.replay().toString(),
+                                 games.get(k).replay().toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPositionBase() throws IOException {
+        File archiveFile = File.createTempFile("amazons", ".games"),
+            baseFile = File.createTempFile("amazons", ".positions");
+        archiveFile.deleteOnExit();
+        baseFile.deleteOnExit();
+        baseFile.delete();
+        int[] moves = new int[Board.MAX_MOVES];
+        Board b = new Board();
+        b.legalMoves(WHITE, moves);
+        b.makeMove(moves[0]);
+        int[] replies = new int[Board.MAX_MOVES];
+        b.legalMoves(BLACK, replies);
+        try (ArchiveWriter out = new ArchiveWriter(archiveFile.getPath())) {
+            for (int k = 0; k < 3; k += 1) {
+                moves[1] = replies[k];
+                out.add(new GameRecord(moves, 2, k == 0 ? WHITE : BLACK,
+                                       "a", "b", 0, 0, 0));
+            }
+        }
+        long start = new Board().key();
+        try (PositionBase base =
+             new PositionBase(baseFile.getPath(), 100, true);
+             ArchiveReader in = new ArchiveReader(archiveFile.getPath())) {
+            assertEquals(128, base.capacity());
+            assertEquals(3, base.importGames(in, 1, 2));
+            assertEquals(2, base.size());
+            try (PositionBase unclosed =
+                 new PositionBase(baseFile.getPath(), 0, false)) {
+                assertEquals(2, unclosed.size());
+            }
+            assertEquals(3, base.visits(start));
+            assertEquals(3, base.visits(b.key()));
+            assertEquals(1, base.wins(start, WHITE));
+            assertEquals(2, base.wins(start, BLACK));
+            assertEquals(0, base.visits(start ^ 1));
+            assertEquals(1, base.depth(start));
+            assertEquals(1, base.depth(b.key()));
+            base.store(start, 3, 42, moves[0]);
+            base.store(start, 2, 0, 0);
+        }
+        try (PositionBase base =
+             new PositionBase(baseFile.getPath(), 0, false)) {
+            assertEquals(2, base.size());
+            long data = base.probe(start);
+            assertEquals(3, TranspositionTable.depth(data));
+            assertEquals(42, TranspositionTable.score(data));
+            assertEquals(moves[0], TranspositionTable.move(data));
+            assertEquals(TranspositionTable.EXACT,
+                         TranspositionTable.bound(data));
+            assertEquals(0, base.probe(start ^ 1));
+            AI ai = new AI().setDepth(1).setPositionBase(base);
+            Board board = new Board();
+            Move move = ((AI) ai.create(WHITE, null)).findMove(board);
+            assertTrue(board.isLegal(move));
+        }
+    }
+
+    @Test
+    public void testMoveCodec() {
+        int code = Move.code(3, 63, 64);
+        assertEquals(3, Move.from(code));
+        assertEquals(63, Move.to(code));
+        assertEquals(64, Move.spear(code));
+        assertEquals("d1-d7(e7)", Move.toString(code));
+        Move move = Move.mv(code);
+        assertSame(move, Move.mv("d1-d7(e7)"));
+        assertSame(move, Move.mv(Square.sq(3), Square.sq(63),
+                                 Square.sq(64)));
+        assertEquals(code, move.code());
+        assertEquals(Square.sq("d7"), move.to());
+        assertEquals("d1-d7(e7)", move.toString());
+        code = Move.code(99, 0, 55);
+        assertEquals(99, Move.from(code));
+        assertEquals(0, Move.to(code));
+        assertEquals(55, Move.spear(code));
+    }
+
+    @Test
+    public void testParseMove() throws InterruptedException {
+        int code = Move.code(3, 63, 64);
+        assertEquals(code, Move.parse("d1-d7(e7)", 0, 9));
+        assertEquals(code, Move.parse("d1  d7\te7", 0, 9));
+        assertEquals(code, Move.parse("D1-D7(E7)", 0, 9));
+        assertEquals(code, Move.parse("x d1-d7(e7) y", 2, 11));
+        assertEquals(Move.code(90, 99, 9), Move.parse("a10 j10 j1", 0, 10));
+        assertEquals(-1, Move.parse("d1-d7(e7", 0, 8));
+        assertEquals(-1, Move.parse("d1-d7(e7) ", 0, 10));
+        assertEquals(-1, Move.parse("d1d7 e7", 0, 7));
+        assertEquals(-1, Move.parse("k1-d7(e7)", 0, 9));
+        assertEquals(-1, Move.parse("d0-d7(e7)", 0, 9));
+        assertEquals(-1, Move.parse("d11-d7(e7)", 0, 10));
+        assertEquals(-1, Move.parse("", 0, 0));
+        assertTrue(Move.isGrammaticalMove("a1 b3 c5"));
+        assertNull(Move.mv("a1 b3 c5"));
+        assertNull(Move.mv("d1-d7(e7"));
+        Thread[] threads = new Thread[4];
+        boolean[] ok = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t += 1) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                boolean good = true;
+                for (int i = 0; i < 10000; i += 1) {
+                    Square from = Square.sq(i % 100),
+                        to = Square.sq((i + id + 1) % 10 + i % 100 / 10 * 10);
+                    Move move = Move.mv(from + " " + to + " " + from);
+                    good &= move == Move.mv(from, to, from);
+                }
+                ok[id] = good;
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t += 1) {
+            threads[t].join();
+            assertTrue(ok[t]);
+        }
+    }
+
+    @Test
+    public void testCopyPosition() {
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 5; k += 1) {
+            b.legalMoves(b.turn(), moves);
+            b.makeMove(moves[3 * k]);
+        }
+        Board full = new Board(b), position = new Board();
+        position.copyPosition(b);
+        for (Board c : new Board[] { full, position }) {
+            assertEquals(5, c.numMoves());
+            assertEquals(b.key(), c.key());
+            assertEquals(b.toString(), c.toString());
+            c.legalMoves(c.turn(), moves);
+            c.makeMove(moves[0]);
+            assertEquals(6, c.numMoves());
+            c.undo();
+            assertEquals(b.key(), c.key());
+        }
+        for (int k = 0; k < 5; k += 1) {
+            full.undo();
+        }
+        assertEquals(new Board().toString(), full.toString());
+        assertEquals(new Board().key(), full.key());
+        try {
+            position.undo();
+            fail("undid a move made before the copy");
+        } catch (IllegalCallerException excp) {
+            assertEquals(b.key(), position.key());
+        }
+    }
+
+    @Test
+    public void testWinner() {
+        Random random = new Random(7);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int game = 0; game < 20; game += 1) {
+            Board b = new Board();
+            while (true) {
+                Piece expected = b.legalMoves(b.turn()).hasNext()
+                    ? null : b.turn().opponent();
+                assertEquals(expected, b.winner());
+                assertEquals(expected, b.winner());
+                if (expected != null) {
+                    break;
+                }
+                int n = b.legalMoves(b.turn(), moves);
+                b.makeMove(moves[random.nextInt(n)]);
+                if (random.nextInt(4) == 0) {
+                    b.undo();
+                    assertNull(b.winner());
+                    b.makeMove(moves[random.nextInt(n)]);
+                }
+            }
+            b.undo();
+            assertNull(b.winner());
+        }
+        Board b = new Board();
+        for (int i = 0; i < 100; i += 1) {
+            if (b.get(Square.sq(i)) == EMPTY) {
+                b.put(SPEAR, Square.sq(i));
+            }
+        }
+        assertEquals(BLACK, b.winner());
+        b.put(EMPTY, Square.sq("a5"));
+        assertNull(b.winner());
+    }
+
+    @Test
+    public void testSymmetry() {
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 4; k += 1) {
+            b.legalMoves(b.turn(), moves);
+            b.makeMove(moves[7 * k]);
+        }
+        assertEquals(b.key(), b.key(0));
+        for (int s = 0; s < Square.SYMMETRIES; s += 1) {
+            Board t = new Board();
+            for (int i = 0; i < 100; i += 1) {
+                t.put(EMPTY, Square.sq(i));
+            }
+            for (int i = 0; i < 100; i += 1) {
+                t.put(b.get(Square.sq(i)),
+                      Square.sq(Square.transform(s, i)));
+                assertEquals(i, Square.transform(Square.inverse(s),
+                                                 Square.transform(s, i)));
+            }
+            assertEquals(b.key(s), t.key());
+        }
+    }
+
+    @Test
+    public void testOpeningBook() throws IOException {
+        File archiveFile = File.createTempFile("amazons", ".games"),
+            bookFile = File.createTempFile("amazons", ".book");
+        archiveFile.deleteOnExit();
+        bookFile.deleteOnExit();
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        b.legalMoves(WHITE, moves);
+        int first = moves[5], mirrored = OpeningBook.transform(1, first);
+        b.makeMove(first);
+        b.legalMoves(BLACK, moves);
+        int reply = moves[3];
+        try (ArchiveWriter out = new ArchiveWriter(archiveFile.getPath())) {
+            int[] game = { first, reply };
+            out.add(new GameRecord(game, 2, WHITE, "a", "b", 0, 0, 0));
+            out.add(new GameRecord(game, 2, BLACK, "a", "b", 0, 0, 0));
+            game[0] = mirrored;
+            game[1] = OpeningBook.transform(1, reply);
+            out.add(new GameRecord(game, 2, BLACK, "a", "b", 0, 0, 0));
+            out.add(new GameRecord(game, 1, null, "a", "b", 0, 0, 0));
+        }
+        Map<Long, Map<Integer, int[]>> stats = new HashMap<>();
+        try (ArchiveReader in = new ArchiveReader(archiveFile.getPath())) {
+            OpeningBook.count(in, 10, stats);
+        }
+        assertEquals(2, stats.size());
+        assertEquals(2, OpeningBook.write(bookFile.getPath(), stats, 2));
+        OpeningBook book = new OpeningBook(bookFile.getPath());
+        assertEquals(2, book.size());
+        int[] weights = new int[Board.MAX_MOVES];
+        int n = book.moves(new Board(), moves, weights);
+        assertEquals(1, n);
+        assertEquals(first, moves[0]);
+        assertEquals(1, weights[0]);
+        assertEquals(first, book.move(new Board(), new Random(1)));
+        assertEquals(reply, book.move(b, null));
+        assertEquals(1, book.moves(b, moves, weights));
+        assertEquals(2, weights[0]);
+        Board m = new Board();
+        m.makeMove(mirrored);
+        assertEquals(OpeningBook.transform(1, reply),
+                     book.move(m, new Random(1)));
+        b.makeMove(reply);
+        assertEquals(0, book.move(b, null));
+        AI ai = new AI().setDepth(1).setOpeningBook(book);
+        assertEquals(Move.mv(first),
+                     ((AI) ai.create(WHITE, null)).findMove(new Board()));
+    }
+
+    /** Test reading games from a log, analysing them, resuming an
+     *  analysis that is already complete, and flagging blunders (but not
+     *  best moves) at the default threshold. */
+    @Test
+    public void testAnalyzer() throws IOException {
+        String log = "seed 1\nd1-d7(e7) # comment\nbogus\nd1-d2(d3)\n"
+            + "G10-g3(i5)\nNEW\n\nquit\nj4 j6 h6\n";
+        BufferedReader in = new BufferedReader(new StringReader(log));
+        Board b = new Board();
+        int[] moves = new int[GameRecord.MAX_MOVES];
+        assertEquals(2, Analyzer.readGame(in, b, moves));
+        assertEquals(Move.mv("d1-d7(e7)").code(), moves[0]);
+        assertEquals(Move.mv("g10-g3(i5)").code(), moves[1]);
+        assertEquals(0, Analyzer.readGame(in, b, moves));
+        assertEquals(1, Analyzer.readGame(in, b, moves));
+        assertEquals(-1, Analyzer.readGame(in, b, moves));
+
+        File logFile = File.createTempFile("amazons", ".log"),
+            outFile = File.createTempFile("amazons", ".out"),
+            checkpoint = new File(outFile.getPath() + ".checkpoint");
+        logFile.deleteOnExit();
+        outFile.deleteOnExit();
+        checkpoint.deleteOnExit();
+        Files.writeString(logFile.toPath(), log);
+        Analyzer analyzer =
+            new Analyzer(new AI().setDepth(1).setThreads(1), 2,
+                         Analyzer.BLUNDER);
+        List<String> logs = List.of(logFile.getPath());
+        assertEquals(2, analyzer.run(logs, outFile.getPath(),
+                                     checkpoint.getPath()));
+        List<String> lines = Files.readAllLines(outFile.toPath());
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(1).startsWith("0\t1\tWhite\td1-d7(e7)\t"));
+        assertTrue(lines.get(4).startsWith("1\t1\tWhite\tj4-j6(h6)\t"));
+        assertEquals("2 " + outFile.length(),
+                     Files.readString(checkpoint.toPath()).trim());
+        assertEquals(0, analyzer.run(logs, outFile.getPath(),
+                                     checkpoint.getPath()));
+        assertEquals(lines, Files.readAllLines(outFile.toPath()));
+
+        Move best = new AI().setDepth(1).create(WHITE, null)
+            .findMove(new Board());
+        Files.writeString(logFile.toPath(), best + "\na7-a10(b10)\n");
+        Files.delete(checkpoint.toPath());
+        assertEquals(1, analyzer.run(logs, outFile.getPath(),
+                                     checkpoint.getPath()));
+        lines = Files.readAllLines(outFile.toPath());
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(1).endsWith("\t0"));
+        assertTrue(lines.get(2).endsWith("\t??"));
+    }
+
+    /** Test the endgame solver on a position with the queens walled off
+     *  from each other. */
+    @Test
+    public void testEndgame() {
+        Endgame endgame = new Endgame();
+        assertFalse(endgame.solve(new Board(), 1000));
+        Board b = new Board();
+        buildBoard(b, ENDGAME);
+        assertTrue(endgame.solve(b, 1000));
+        assertTrue(endgame.exact());
+        assertEquals(2, endgame.moves(WHITE));
+        assertEquals(1, endgame.moves(BLACK));
+        assertEquals(WHITE, endgame.winner(WHITE));
+        assertEquals(WHITE, endgame.winner(BLACK));
+        Move best = Move.mv(endgame.bestMove());
+        assertTrue(b.isLegal(best));
+        b.makeMove(best);
+        assertTrue(endgame.solve(b, 1000));
+        assertEquals(1, endgame.moves(WHITE));
+    }
+
+    static final Piece[][] ENDGAME =
+    {
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { W, E, E, S, S, S, S, S, B, E },
+    };
 
+    /** Test the proof-number solver against a full search of a small
+     *  contested position, and of each position one move from it. */
+    @Test
+    public void testProofSolver() {
+        Board b = new Board();
+        buildBoard(b, CONTESTED);
+        ProofSolver solver = new ProofSolver(1 << 12);
+        checkSolution(solver, b);
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(WHITE, moves);
+        assertTrue(n > 0);
+        for (int i = 0; i < n; i += 1) {
+            b.makeMove(moves[i]);
+            checkSolution(solver, b);
+            b.undo();
+        }
+    }
+
+    /** Check SOLVER's solution of B against a full search. */
+    private void checkSolution(ProofSolver solver, Board b) {
+        Piece turn = b.turn();
+        boolean wins = sideToMoveWins(b);
+        assertEquals(wins ? turn : turn.opponent(), solver.solve(b, 100000));
+        if (wins) {
+            Move move = Move.mv(solver.winningMove());
+            assertTrue(b.isLegal(move));
+            b.makeMove(move);
+            assertFalse(sideToMoveWins(b));
+            b.undo();
+        }
+    }
 
+    /** Return true iff the side to move on B wins, by full search. */
+    private boolean sideToMoveWins(Board b) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(b.turn(), moves);
+        for (int i = 0; i < n; i += 1) {
+            b.makeMove(moves[i]);
+            boolean lost = !sideToMoveWins(b);
+            b.undo();
+            if (lost) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static final Piece[][] CONTESTED =
+    {
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { S, S, S, S, S, S, S, S, S, S },
+        { E, E, E, E, S, S, S, S, S, S },
+        { W, E, E, B, S, S, S, S, S, S },
+    };
 
+    /** Test that a time-limited MCTSPlayer without a controller returns a
+     *  legal move, and finds a move that wins at once. */
+    @Test
+    public void testMCTSPlayer() {
+        MCTSPlayer mcts = new MCTSPlayer().setTimeControl(200, 0);
+        Board b = new Board();
+        assertTrue(b.isLegal(mcts.create(WHITE, null).findMove(b)));
+        buildBoard(b, MCTSWIN);
+        Move move = mcts.create(WHITE, null).findMove(b);
+        assertTrue(b.isLegal(move));
+        b.makeMove(move);
+        assertEquals(WHITE, b.winner());
+        try {
+            new MCTSPlayer().setTimeControl(0, 0);
+            fail("MCTSPlayer accepted no time limit");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+    }
+
+    static final Piece[][] MCTSWIN =
+    {
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { E, E, E, E, E, E, E, E, E, E },
+        { S, S, E, E, E, E, E, E, E, E },
+        { B, E, E, E, W, E, E, E, E, E },
+    };
+
+    /** Return a new pondering AI, searching for at most MILLIS
+     *  milliseconds a move, that plays white in a game under a new
+     *  Controller. */
+    private AI ponderingAI(long millis) {
+        AI template = new AI().setTimeControl(millis, 0).setPonder(true);
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), template);
+        return (AI) template.create(WHITE, controller);
+    }
+
+    /** Test that a pondering AI that guesses its opponent's reply
+     *  continues its background search, returning a legal move within
+     *  its time limit. */
+    @Test
+    public void testPonderHit() throws InterruptedException {
+        AI ai = ponderingAI(100);
+        Board b = ai.board();
+        Move move = ai.findMove(b);
+        b.makeMove(move);
+        ai.moveMade(move);
+        Thread ponderer = ai.ponderer();
+        assertNotNull(ponderer);
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(BLACK, moves), reply = 0;
+        for (int i = 0; i < n && reply == 0; i += 1) {
+            b.makeMove(moves[i]);
+            if (b.key() == ai.ponderKey()) {
+                reply = moves[i];
+            }
+            b.undo();
+        }
+        assertNotEquals(0, reply);
+        b.makeMove(reply);
+        ai.moveMade(Move.mv(reply));
+        Thread.sleep(200);
+        assertTrue(ponderer.isAlive());
+        long start = System.currentTimeMillis();
+        move = ai.findMove(b);
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertTrue(b.isLegal(move));
+        assertTrue(ai.depthReached() > 0);
+        assertFalse(ponderer.isAlive());
+        assertNull(ai.ponderer());
+        ai.dispose();
+    }
+
+    /** Test that a pondering AI whose guess is wrong stops its background
+     *  search before searching afresh, and that dispose stops it too. */
+    @Test
+    public void testPonderMiss() {
+        AI ai = ponderingAI(100);
+        Board b = ai.board();
+        Move move = ai.findMove(b);
+        b.makeMove(move);
+        ai.moveMade(move);
+        Thread ponderer = ai.ponderer();
+        assertNotNull(ponderer);
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(BLACK, moves);
+        for (int i = 0; i < n; i += 1) {
+            b.makeMove(moves[i]);
+            if (b.key() != ai.ponderKey()) {
+                break;
+            }
+            b.undo();
+        }
+        move = ai.findMove(b);
+        assertFalse(ponderer.isAlive());
+        assertNull(ai.ponderer());
+        assertTrue(b.isLegal(move));
+        b.makeMove(move);
+        ai.moveMade(move);
+        ponderer = ai.ponderer();
+        assertNotNull(ponderer);
+        ai.dispose();
+        assertFalse(ponderer.isAlive());
+        assertNull(ai.ponderer());
+    }
+}
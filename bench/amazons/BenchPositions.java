@@ -0,0 +1,51 @@
+package amazons;
+
+/** Positions on which the benchmarks are run, taken from one game
+ *  between two AIs.
+ *  @author Ani Gottiparthy
+ */
+final class BenchPositions {
+
+    /** Names of the positions, for use in @Param annotations. */
+    static final String OPENING = "opening", MIDGAME = "midgame",
+        ENDGAME = "endgame";
+
+    /** Return a new Board set to the position named NAME: the start
+     *  position (OPENING), the position after 20 moves (MIDGAME), or the
+     *  position after 50 moves (ENDGAME). */
+    static Board position(String name) {
+        int moves;
+        switch (name) {
+        case OPENING:
+            moves = 0;
+            break;
+        case MIDGAME:
+            moves = 20;
+            break;
+        case ENDGAME:
+            moves = 50;
+            break;
+        default:
+            throw Utils.error("unknown position: %s", name);
+        }
+        Board board = new Board();
+        for (int i = 0; i < moves; i += 1) {
+            board.makeMove(Move.mv(GAME[i]));
+        }
+        return board;
+    }
+
+    /** The moves of the game. */
+    static final String[] GAME = {
+        "d1-d7(i7)", "g10-g3(i5)", "j4-f4(f3)", "a7-d4(d6)", "a4-c4(c10)",
+        "d10-d9(f7)", "f4-g5(e5)", "g3-h3(f1)", "g5-h4(c9)", "d9-d8(g5)",
+        "h4-h8(h4)", "j7-j9(c2)", "g1-h2(j4)", "d8-c8(c6)", "c4-b4(c5)",
+        "j9-h9(g8)", "h2-i2(i4)", "h3-h2(h3)", "b4-b3(b9)", "d4-c4(c3)",
+        "d7-d8(d7)", "c8-c7(c8)", "d8-e9(d9)", "c7-a7(b6)", "b3-a3(a6)",
+        "h9-i9(i8)", "a3-c1(f4)", "a7-c7(d8)", "e9-e6(e10)", "i9-g9(e7)",
+        "e6-d5(e4)", "c7-a7(c7)", "c1-a3(b4)", "c4-d3(d4)", "d5-e6(c4)",
+        "d3-d1(a1)", "a3-c1(e3)", "d1-d2(d1)", "e6-g4(g1)", "g9-f8(f9)",
+        "c1-a3(c1)", "f8-h6(h5)", "h8-h7(g7)", "h6-i6(e6)", "g4-g2(e2)",
+        "h2-g3(i1)", "g2-f2(e1)", "i6-j7(j10)", "h7-h10(h6)", "j7-j9(g9)",
+    };
+}
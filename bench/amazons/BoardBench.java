@@ -0,0 +1,108 @@
+package amazons;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmarks of the Board, Square, and Move operations used on every
+ *  node of a search.
+ *  @author Ani Gottiparthy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBench {
+
+    /** The name of the position benchmarked (see BenchPositions). */
+    @Param({ BenchPositions.OPENING, BenchPositions.MIDGAME,
+             BenchPositions.ENDGAME })
+    public String position;
+
+    /** Set up the position and its legal moves. */
+    @Setup
+    public void setup() {
+        _board = BenchPositions.position(position);
+        _copy = new Board();
+        _moves = new int[Board.MAX_MOVES];
+        _numMoves = _board.legalMoves(_board.turn(), _moves);
+        _moveObjects = new Move[_numMoves];
+        _moveStrings = new String[_numMoves];
+        for (int i = 0; i < _numMoves; i += 1) {
+            _moveObjects[i] = Move.mv(_moves[i]);
+            _moveStrings[i] = _moveObjects[i].toString();
+        }
+    }
+
+    /** Generate all legal moves into a buffer. */
+    @Benchmark
+    public int legalMoves() {
+        return _board.legalMoves(_board.turn(), _moves);
+    }
+
+    /** Generate all legal moves with the iterator. */
+    @Benchmark
+    public void legalMoveIterator(Blackhole sink) {
+        Iterator<Move> moves = _board.legalMoves(_board.turn());
+        while (moves.hasNext()) {
+            sink.consume(moves.next());
+        }
+    }
+
+    /** Make and undo one legal move (a different one each call). */
+    @Benchmark
+    public long makeUndo() {
+        _next = (_next + 1) % _numMoves;
+        _board.makeMove(_moves[_next]);
+        long key = _board.key();
+        _board.undo();
+        return key;
+    }
+
+    /** Copy the board. */
+    @Benchmark
+    public Board copy() {
+        _copy.copy(_board);
+        return _copy;
+    }
+
+    /** Check a legal move (a different one each call). */
+    @Benchmark
+    public boolean isLegal() {
+        _next = (_next + 1) % _numMoves;
+        return _board.isLegal(_moveObjects[_next]);
+    }
+
+    /** Parse a move (a different one each call). */
+    @Benchmark
+    public Move parseMove() {
+        _next = (_next + 1) % _numMoves;
+        return Move.mv(_moveStrings[_next]);
+    }
+
+    /** The position benchmarked, and a board to copy it to. */
+    private Board _board, _copy;
+    /** The legal moves from _board, as packed codes, Moves, and
+     *  strings. */
+    private int[] _moves;
+    /** See _moves. */
+    private Move[] _moveObjects;
+    /** See _moves. */
+    private String[] _moveStrings;
+    /** The number of legal moves, and the index of the last one used. */
+    private int _numMoves, _next;
+}
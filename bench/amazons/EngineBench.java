@@ -0,0 +1,116 @@
+package amazons;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of the AI: the parts of its static evaluation, and
+ *  fixed-depth searches.
+ *  @author Ani Gottiparthy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBench {
+
+    /** The name of the position benchmarked (see BenchPositions). */
+    @Param({ BenchPositions.OPENING, BenchPositions.MIDGAME,
+             BenchPositions.ENDGAME })
+    public String position;
+
+    /** Set up the position. */
+    @Setup
+    public void setup() {
+        _board = BenchPositions.position(position);
+    }
+
+    /** Evaluate the position by territory, as AI does at each leaf. */
+    @Benchmark
+    public int evaluate() {
+        return _territory.evaluate(_board);
+    }
+
+    /** Check whether the game is over, as AI does at each node. */
+    @Benchmark
+    public Piece winner() {
+        return _board.winner();
+    }
+
+    /** Check whether the queens are walled off, and if so count their
+     *  moves, as AI does at each leaf. */
+    @Benchmark
+    public boolean endgame() {
+        return _endgame.solve(_board, 200);
+    }
+
+    /** Benchmarks of fixed-depth searches, kept apart from the others
+     *  so that their per-search setup does not run around the others'
+     *  much shorter calls. */
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class Search {
+
+        /** The name of the position searched (see BenchPositions). */
+        @Param({ BenchPositions.OPENING, BenchPositions.MIDGAME,
+                 BenchPositions.ENDGAME })
+        public String position;
+
+        /** The depth of the searches. */
+        @Param({ "2" })
+        public int depth;
+
+        /** Set up the position and an AI, and search once, so that the
+         *  AI allocates its transposition table and other storage here
+         *  rather than in the first timed search. */
+        @Setup
+        public void setup() {
+            _board = BenchPositions.position(position);
+            _ai = new AI(_board.turn(), null).setDepth(depth)
+                .setHashSize(16);
+            _ai.findMove(_board);
+        }
+
+        /** Empty the transposition table, so that no search starts with
+         *  the results of the one before. */
+        @Setup(Level.Invocation)
+        public void clearTable() {
+            _ai.clearTable();
+        }
+
+        /** Search the position to a fixed depth with one thread. */
+        @Benchmark
+        public Move findMove() {
+            return _ai.findMove(_board);
+        }
+
+        /** The position searched. */
+        private Board _board;
+        /** The AI searching it. */
+        private AI _ai;
+    }
+
+    /** The position benchmarked. */
+    private Board _board;
+    /** Evaluators. */
+    private final Territory _territory = new Territory();
+    /** See _territory. */
+    private final Endgame _endgame = new Endgame();
+}